@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tuwien.auto.calimero.GroupAddress;
+import tuwien.auto.calimero.datapoint.StateDP;
+
+/**
+ * Creating and decoding a KNXEvent from the raw telegram, as the DbWriter
+ * does for every event it takes out of the ring buffer. Run with -prof gc to
+ * see the allocation per event.
+ *
+ * @author mieslingert
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"1.001", "3.007", "5.001", "6.010", "7.001", "8.001", "9.001", "10.001",
+        "11.001", "12.001", "13.001", "14.056", "16.000", "17.001"})
+    public String dpt;
+
+    private GaDescriptor desc;
+    private byte[] asdu;
+    private int src;
+    private long ts;
+
+    @Setup
+    public void setup() throws Exception {
+        int mainNumber = Integer.parseInt(dpt.substring(0, dpt.indexOf('.')));
+        GaTable gaTable = new GaTable();
+        desc = gaTable.register(new StateDP(new GroupAddress("5/0/2"), "bench", mainNumber, dpt));
+        asdu = sampleAsdu(mainNumber);
+        src = 0x1101;
+        ts = KNXEvent.nowMicros();
+    }
+
+    /**
+     * Typical ASDU of a datapoint type.
+     */
+    static byte[] sampleAsdu(int mainNumber) {
+        switch (mainNumber) {
+            case 1:
+                return new byte[]{0x01};
+            case 3:
+                return new byte[]{0x0b};
+            case 5:
+            case 6:
+            case 17:
+                return new byte[]{0x2a};
+            case 7:
+            case 8:
+                return new byte[]{0x12, 0x34};
+            case 9:
+                return new byte[]{0x0c, 0x1a};
+            case 10:
+                return new byte[]{0x4c, 0x1e, 0x05};
+            case 11:
+                return new byte[]{0x12, 0x0a, 0x1a};
+            case 12:
+            case 13:
+                return new byte[]{0x00, 0x01, (byte) 0xe2, 0x40};
+            case 14:
+                return new byte[]{0x42, (byte) 0xc8, 0x00, 0x00};
+            case 16:
+                return "Hello KNX".getBytes();
+            default:
+                return new byte[]{0x00};
+        }
+    }
+
+    @Benchmark
+    public double decode() throws Exception {
+        KNXEvent kev = new KNXEvent(KNXEventEnum.groupWrite, src, desc.getRawAddress(), ts, asdu);
+        kev.decode(desc);
+        return kev.getNumericValue();
+    }
+
+    /**
+     * Decode plus the display string that goes to knx_log.
+     */
+    @Benchmark
+    public String decodeAndFormat() throws Exception {
+        KNXEvent kev = new KNXEvent(KNXEventEnum.groupWrite, src, desc.getRawAddress(), ts, asdu);
+        kev.decode(desc);
+        return kev.asString();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tuwien.auto.calimero.GroupAddress;
+import tuwien.auto.calimero.datapoint.DatapointMap;
+import tuwien.auto.calimero.datapoint.StateDP;
+
+/**
+ * Looking up the datapoint of a telegram, Calimero DatapointMap against the
+ * dense GaTable.
+ *
+ * @author mieslingert
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GaLookupBenchmark {
+
+    @Param({"100", "1000"})
+    public int datapoints;
+
+    private final DatapointMap<StateDP> map = new DatapointMap<>();
+    private final GaTable gaTable = new GaTable();
+    private int[] rawAddresses;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(42);
+        int[] registered = new int[datapoints];
+        for (int i = 0; i < datapoints; i++) {
+            GroupAddress ga = new GroupAddress(random.nextInt(65535) + 1);
+            StateDP dp = new StateDP(ga, "bench " + i, 9, "9.001");
+            map.add(dp);
+            gaTable.register(dp);
+            registered[i] = ga.getRawAddress();
+        }
+        // the telegram stream, mostly known GAs
+        rawAddresses = new int[4096];
+        for (int i = 0; i < rawAddresses.length; i++) {
+            rawAddresses[i] = random.nextInt(10) == 0 ? random.nextInt(65536) : registered[random.nextInt(datapoints)];
+        }
+    }
+
+    private int nextAddress() {
+        next = (next + 1) & (rawAddresses.length - 1);
+        return rawAddresses[next];
+    }
+
+    /**
+     * The way GroupMonitor and DbWriter used to look up a GA, including the
+     * GroupAddress object for the map key.
+     */
+    @Benchmark
+    public Object datapointMap() {
+        return map.get(new GroupAddress(nextAddress()));
+    }
+
+    @Benchmark
+    public Object gaTable() {
+        return gaTable.get(nextAddress());
+    }
+}
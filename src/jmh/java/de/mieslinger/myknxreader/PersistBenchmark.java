@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tuwien.auto.calimero.GroupAddress;
+import tuwien.auto.calimero.datapoint.StateDP;
+
+/**
+ * End to end persistence of a batch of events with DbWriter.flush() against
+ * an in-process H2 database in MySQL mode. The absolute numbers say little
+ * about a real MySQL server, but a change in the insert path shows up.
+ *
+ * @author mieslingert
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistBenchmark {
+
+    private static final String[] DPTS = {"1.001", "5.001", "7.001", "9.001", "9.004", "12.001", "13.010", "14.056", "16.000", "17.001"};
+
+    @Param({"1", "100", "500"})
+    public int batchSize;
+
+    @Param({"", "1m,1h"})
+    public String rollups;
+
+    private DbWriter dbWriter;
+    private GaDescriptor[] descriptors;
+    private long ts;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        // a new database per trial, so the tables don't grow across runs
+        String url = "jdbc:h2:mem:knxbench" + System.nanoTime() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+        ConnectionPool pool = new ConnectionPool("org.h2.Driver", url, "sa", "", 2);
+        GaTable gaTable = new GaTable();
+        descriptors = new GaDescriptor[50];
+        for (int i = 0; i < descriptors.length; i++) {
+            String dpt = DPTS[i % DPTS.length];
+            int mainNumber = Integer.parseInt(dpt.substring(0, dpt.indexOf('.')));
+            descriptors[i] = gaTable.register(new StateDP(new GroupAddress(1, 2, i), "bench " + i, mainNumber, dpt));
+        }
+        TableRegistry tables = new TableRegistry();
+        EventRingBuffer ring = new EventRingBuffer(1024, EventRingBuffer.OverflowPolicy.block, null);
+        dbWriter = new DbWriter(pool, ring, gaTable, tables, batchSize, 1000, 512);
+        if (!rollups.isEmpty()) {
+            RollupAggregator aggregator = new RollupAggregator(rollups);
+            tables.setRollupSuffixes(aggregator.getSuffixes());
+            dbWriter.setRollupWriter(new RollupWriter(aggregator, tables));
+        }
+        dbWriter.provisionTables();
+        ts = KNXEvent.nowMicros();
+    }
+
+    private List<KNXEvent> nextBatch() throws Exception {
+        List<KNXEvent> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            GaDescriptor desc = descriptors[next];
+            next = (next + 1) % descriptors.length;
+            // data tables have the ts as primary key at ms precision
+            ts += 1000;
+            KNXEvent kev = new KNXEvent(KNXEventEnum.groupWrite, 0x1101, desc.getRawAddress(), ts,
+                    DecodeBenchmark.sampleAsdu(desc.getMainNumber()));
+            kev.decode(desc);
+            batch.add(kev);
+        }
+        return batch;
+    }
+
+    @Benchmark
+    public boolean flush() throws Exception {
+        return dbWriter.flush(nextBatch());
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Layout of the archive segment files written by ArchiveWriter and read by
+ * ArchiveReader.
+ * <pre>
+ * "KNXSEG01"
+ * blocks, each holding the events of one GA:
+ *   "KBLK" (4), GA (2), value kind (1), count (4), min ts (8), max ts (8),
+ *   raw length (4), compressed length (4), deflated columns
+ * index footer, missing if the segment was not closed properly:
+ *   per block: GA (2), value kind (1), count (4), min ts (8), max ts (8),
+ *              offset (8)
+ *   number of blocks (4), offset of the footer (8), "KNXIDX01"
+ * </pre>
+ * The columns of a block are, one after the other: timestamps in
+ * microseconds (first as 8 bytes, then delta of delta as zigzag varints),
+ * source addresses (2 bytes each), event types (1 byte each) and the
+ * values, encoded by kind:
+ * <ul>
+ * <li>BOOLEAN: one bit per event</li>
+ * <li>INTEGER: difference to the previous value as zigzag varint</li>
+ * <li>FLOAT: XOR with the bits of the previous value, trailing zero bits
+ * cut off, as trailing zero count (1) and varint</li>
+ * <li>STRING: length as varint and UTF-8 bytes</li>
+ * </ul>
+ *
+ * @author mieslingert
+ */
+public class ArchiveFormat {
+
+    static final byte[] SEGMENT_MAGIC = "KNXSEG01".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] INDEX_MAGIC = "KNXIDX01".getBytes(StandardCharsets.US_ASCII);
+    static final int BLOCK_MAGIC = 0x4b424c4b;
+    static final int BLOCK_HEADER = 4 + 2 + 1 + 4 + 8 + 8 + 4 + 4;
+    static final int INDEX_ENTRY = 2 + 1 + 4 + 8 + 8 + 8;
+    static final int TRAILER = 4 + 8 + 8;
+    private static final DptDecoder.Kind[] KINDS = DptDecoder.Kind.values();
+
+    private ArchiveFormat() {
+    }
+
+    /**
+     * The events of one GA, filled by the ArchiveWriter or decoded from a
+     * segment by the ArchiveReader.
+     */
+    public static class Block {
+
+        private int ga;
+        private DptDecoder.Kind kind;
+        private int count = 0;
+        private long[] ts;
+        private int[] src;
+        private byte[] type;
+        private long[] longs;
+        private double[] doubles;
+        private String[] strings;
+
+        public Block(int ga, DptDecoder.Kind kind, int capacity) {
+            this.ga = ga;
+            this.kind = kind;
+            ts = new long[capacity];
+            src = new int[capacity];
+            type = new byte[capacity];
+            if (kind == DptDecoder.Kind.FLOAT) {
+                doubles = new double[capacity];
+            } else if (kind == DptDecoder.Kind.STRING) {
+                strings = new String[capacity];
+            } else {
+                longs = new long[capacity];
+            }
+        }
+
+        public void add(KNXEvent kev) {
+            if (count == ts.length) {
+                grow();
+            }
+            ts[count] = kev.getTsMicros();
+            src[count] = kev.getRawSourceAddr();
+            type[count] = (byte) kev.getEvType().ordinal();
+            switch (kind) {
+                case FLOAT:
+                    doubles[count] = kev.getFloatValue();
+                    break;
+                case STRING:
+                    strings[count] = kev.getStringValue();
+                    break;
+                default:
+                    longs[count] = kev.getLongValue();
+            }
+            count++;
+        }
+
+        private void grow() {
+            int capacity = Math.max(16, ts.length * 2);
+            ts = Arrays.copyOf(ts, capacity);
+            src = Arrays.copyOf(src, capacity);
+            type = Arrays.copyOf(type, capacity);
+            if (doubles != null) {
+                doubles = Arrays.copyOf(doubles, capacity);
+            }
+            if (strings != null) {
+                strings = Arrays.copyOf(strings, capacity);
+            }
+            if (longs != null) {
+                longs = Arrays.copyOf(longs, capacity);
+            }
+        }
+
+        public int getGa() {
+            return ga;
+        }
+
+        public DptDecoder.Kind getKind() {
+            return kind;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getMinTs() {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                min = Math.min(min, ts[i]);
+            }
+            return min;
+        }
+
+        public long getMaxTs() {
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                max = Math.max(max, ts[i]);
+            }
+            return max;
+        }
+
+        public long getTs(int i) {
+            return ts[i];
+        }
+
+        public int getSrc(int i) {
+            return src[i];
+        }
+
+        public KNXEventEnum getEvType(int i) {
+            return KNXEventEnum.values()[type[i]];
+        }
+
+        /**
+         * The value as text, like in knx_log.
+         */
+        public String getValue(int i) {
+            switch (kind) {
+                case BOOLEAN:
+                    return longs[i] != 0 ? "1" : "0";
+                case FLOAT:
+                    return Double.toString(doubles[i]);
+                case STRING:
+                    return strings[i];
+                default:
+                    return Long.toString(longs[i]);
+            }
+        }
+
+        void clear() {
+            count = 0;
+        }
+    }
+
+    /**
+     * Where to find the block of a GA and what time it covers, one per
+     * block in the index footer.
+     */
+    public static class IndexEntry {
+
+        private int ga;
+        private DptDecoder.Kind kind;
+        private int count;
+        private long minTs;
+        private long maxTs;
+        private long offset;
+
+        IndexEntry(int ga, DptDecoder.Kind kind, int count, long minTs, long maxTs, long offset) {
+            this.ga = ga;
+            this.kind = kind;
+            this.count = count;
+            this.minTs = minTs;
+            this.maxTs = maxTs;
+            this.offset = offset;
+        }
+
+        public int getGa() {
+            return ga;
+        }
+
+        public DptDecoder.Kind getKind() {
+            return kind;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getMinTs() {
+            return minTs;
+        }
+
+        public long getMaxTs() {
+            return maxTs;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        void write(ByteBuffer buf) {
+            buf.putShort((short) ga);
+            buf.put((byte) kind.ordinal());
+            buf.putInt(count);
+            buf.putLong(minTs);
+            buf.putLong(maxTs);
+            buf.putLong(offset);
+        }
+
+        static IndexEntry read(ByteBuffer buf) {
+            int ga = buf.getShort() & 0xffff;
+            DptDecoder.Kind kind = KINDS[buf.get()];
+            return new IndexEntry(ga, kind, buf.getInt(), buf.getLong(), buf.getLong(), buf.getLong());
+        }
+    }
+
+    /**
+     * Encodes the block including its header.
+     */
+    static byte[] encode(Block b) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(b.count * 8 + 64);
+        long prevTs = b.ts[0];
+        long prevDelta = 0;
+        writeLong(out, prevTs);
+        for (int i = 1; i < b.count; i++) {
+            long delta = b.ts[i] - prevTs;
+            writeVarLong(out, zigzag(delta - prevDelta));
+            prevDelta = delta;
+            prevTs = b.ts[i];
+        }
+        for (int i = 0; i < b.count; i++) {
+            out.write(b.src[i] >> 8);
+            out.write(b.src[i]);
+        }
+        out.write(b.type, 0, b.count);
+        switch (b.kind) {
+            case BOOLEAN:
+                byte[] bits = new byte[(b.count + 7) / 8];
+                for (int i = 0; i < b.count; i++) {
+                    if (b.longs[i] != 0) {
+                        bits[i >> 3] |= 1 << (i & 7);
+                    }
+                }
+                out.write(bits, 0, bits.length);
+                break;
+            case FLOAT:
+                long prevBits = 0;
+                for (int i = 0; i < b.count; i++) {
+                    long bitsNow = Double.doubleToLongBits(b.doubles[i]);
+                    long xor = bitsNow ^ prevBits;
+                    int tz = Long.numberOfTrailingZeros(xor);
+                    out.write(tz);
+                    if (xor != 0) {
+                        writeVarLong(out, xor >>> tz);
+                    }
+                    prevBits = bitsNow;
+                }
+                break;
+            case STRING:
+                for (int i = 0; i < b.count; i++) {
+                    byte[] s = b.strings[i] != null ? b.strings[i].getBytes(StandardCharsets.UTF_8) : new byte[0];
+                    writeVarLong(out, s.length);
+                    out.write(s, 0, s.length);
+                }
+                break;
+            default:
+                long prev = 0;
+                for (int i = 0; i < b.count; i++) {
+                    writeVarLong(out, zigzag(b.longs[i] - prev));
+                    prev = b.longs[i];
+                }
+        }
+        byte[] raw = out.toByteArray();
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] compressed = new byte[raw.length + 64];
+        int compLen = 0;
+        while (!deflater.finished()) {
+            if (compLen == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            compLen += deflater.deflate(compressed, compLen, compressed.length - compLen);
+        }
+        deflater.end();
+
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER + compLen);
+        block.putInt(BLOCK_MAGIC);
+        block.putShort((short) b.ga);
+        block.put((byte) b.kind.ordinal());
+        block.putInt(b.count);
+        block.putLong(b.getMinTs());
+        block.putLong(b.getMaxTs());
+        block.putInt(raw.length);
+        block.putInt(compLen);
+        block.put(compressed, 0, compLen);
+        return block.array();
+    }
+
+    /**
+     * Reads the block header at the current position of buf, leaves the
+     * position behind the block.
+     *
+     * @return the index entry of the block, null if there is no complete
+     * block
+     */
+    static IndexEntry readHeader(ByteBuffer buf) {
+        if (buf.remaining() < BLOCK_HEADER) {
+            return null;
+        }
+        int start = buf.position();
+        if (buf.getInt() != BLOCK_MAGIC) {
+            buf.position(start);
+            return null;
+        }
+        int ga = buf.getShort() & 0xffff;
+        int kind = buf.get();
+        int count = buf.getInt();
+        long minTs = buf.getLong();
+        long maxTs = buf.getLong();
+        buf.getInt();
+        int compLen = buf.getInt();
+        if (kind < 0 || kind >= KINDS.length || count <= 0 || compLen < 0 || buf.remaining() < compLen) {
+            buf.position(start);
+            return null;
+        }
+        buf.position(buf.position() + compLen);
+        return new IndexEntry(ga, KINDS[kind], count, minTs, maxTs, start);
+    }
+
+    /**
+     * Decodes the block starting at offset.
+     */
+    static Block decode(ByteBuffer segment, long offset) throws IOException {
+        ByteBuffer buf = segment.duplicate();
+        buf.position((int) offset);
+        if (buf.getInt() != BLOCK_MAGIC) {
+            throw new IOException("no block at offset " + offset);
+        }
+        int ga = buf.getShort() & 0xffff;
+        DptDecoder.Kind kind = KINDS[buf.get()];
+        int count = buf.getInt();
+        buf.getLong();
+        buf.getLong();
+        int rawLen = buf.getInt();
+        int compLen = buf.getInt();
+        byte[] compressed = new byte[compLen];
+        buf.get(compressed);
+        byte[] raw = new byte[rawLen];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            if (inflater.inflate(raw) != rawLen) {
+                throw new IOException("truncated block at offset " + offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt block at offset " + offset + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        Block b = new Block(ga, kind, count);
+        b.count = count;
+        ByteBuffer in = ByteBuffer.wrap(raw);
+        long prevTs = in.getLong();
+        long prevDelta = 0;
+        b.ts[0] = prevTs;
+        for (int i = 1; i < count; i++) {
+            long delta = prevDelta + unzigzag(readVarLong(in));
+            prevTs += delta;
+            b.ts[i] = prevTs;
+            prevDelta = delta;
+        }
+        for (int i = 0; i < count; i++) {
+            b.src[i] = in.getShort() & 0xffff;
+        }
+        in.get(b.type, 0, count);
+        switch (kind) {
+            case BOOLEAN:
+                byte[] bits = new byte[(count + 7) / 8];
+                in.get(bits);
+                for (int i = 0; i < count; i++) {
+                    b.longs[i] = (bits[i >> 3] >> (i & 7)) & 1;
+                }
+                break;
+            case FLOAT:
+                long prevBits = 0;
+                for (int i = 0; i < count; i++) {
+                    int tz = in.get() & 0xff;
+                    long xor = tz == 64 ? 0 : readVarLong(in) << tz;
+                    prevBits ^= xor;
+                    b.doubles[i] = Double.longBitsToDouble(prevBits);
+                }
+                break;
+            case STRING:
+                for (int i = 0; i < count; i++) {
+                    byte[] s = new byte[(int) readVarLong(in)];
+                    in.get(s);
+                    b.strings[i] = new String(s, StandardCharsets.UTF_8);
+                }
+                break;
+            default:
+                long prev = 0;
+                for (int i = 0; i < count; i++) {
+                    prev += unzigzag(readVarLong(in));
+                    b.longs[i] = prev;
+                }
+        }
+        return b;
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long v) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (v >> shift));
+        }
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7fL) != 0) {
+            out.write((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return v;
+    }
+}
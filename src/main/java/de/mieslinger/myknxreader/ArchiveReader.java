@@ -0,0 +1,208 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import com.sampullara.cli.Args;
+import com.sampullara.cli.Argument;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import tuwien.auto.calimero.GroupAddress;
+import tuwien.auto.calimero.IndividualAddress;
+
+/**
+ * Reads archive segments written by ArchiveWriter. The segment is memory
+ * mapped, only the index and the blocks matching a query are read.
+ * <p>
+ * Also a command line tool to query the archive:
+ * <pre>
+ * java -cp MyKnxReader.jar de.mieslinger.myknxreader.ArchiveReader -a /var/lib/knx-archive -ga 5/0/2 -from 2024-01-01 -to 2024-01-02T12:00
+ * </pre>
+ * prints ts;src;ga;type;value, grouped by block, in time order for a
+ * single GA.
+ *
+ * @author mieslingert
+ */
+public class ArchiveReader implements Closeable {
+
+    @Argument(alias = "a", description = "archive directory")
+    private static String archiveDir = "/var/lib/knx-archive";
+
+    @Argument(alias = "ga", description = "group address to query, empty for all")
+    private static String ga = "";
+
+    @Argument(alias = "from", description = "start of the time range, e.g. 2024-01-01 or 2024-01-01T12:00")
+    private static String from = "";
+
+    @Argument(alias = "to", description = "end of the time range (exclusive)")
+    private static String to = "";
+
+    @Argument(alias = "i", description = "only list the index of the segments")
+    private static boolean indexOnly = false;
+
+    private File file;
+    private FileChannel channel;
+    private MappedByteBuffer buf;
+    private List<ArchiveFormat.IndexEntry> index = new ArrayList<>();
+
+    private ArchiveReader() {
+    }
+
+    public ArchiveReader(File file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        long size = channel.size();
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        byte[] magic = new byte[ArchiveFormat.SEGMENT_MAGIC.length];
+        if (size < magic.length) {
+            channel.close();
+            throw new IOException(file + " is not an archive segment");
+        }
+        buf.get(magic);
+        if (!Arrays.equals(magic, ArchiveFormat.SEGMENT_MAGIC)) {
+            channel.close();
+            throw new IOException(file + " is not an archive segment");
+        }
+        if (!readFooter(size)) {
+            // segment still open or not closed properly
+            ByteBuffer scan = buf.duplicate();
+            scan.position(magic.length);
+            ArchiveFormat.IndexEntry entry;
+            while ((entry = ArchiveFormat.readHeader(scan)) != null) {
+                index.add(entry);
+            }
+        }
+    }
+
+    private boolean readFooter(long size) {
+        if (size < ArchiveFormat.SEGMENT_MAGIC.length + ArchiveFormat.TRAILER) {
+            return false;
+        }
+        byte[] magic = new byte[ArchiveFormat.INDEX_MAGIC.length];
+        ByteBuffer trailer = buf.duplicate();
+        trailer.position((int) size - ArchiveFormat.TRAILER);
+        int entries = trailer.getInt();
+        long footer = trailer.getLong();
+        trailer.get(magic);
+        if (!Arrays.equals(magic, ArchiveFormat.INDEX_MAGIC)
+                || footer + (long) entries * ArchiveFormat.INDEX_ENTRY + ArchiveFormat.TRAILER != size) {
+            return false;
+        }
+        ByteBuffer in = buf.duplicate();
+        in.position((int) footer);
+        for (int i = 0; i < entries; i++) {
+            index.add(ArchiveFormat.IndexEntry.read(in));
+        }
+        return true;
+    }
+
+    public List<ArchiveFormat.IndexEntry> getIndex() {
+        return Collections.unmodifiableList(index);
+    }
+
+    /**
+     * Decodes the blocks of the GA that overlap the time range.
+     *
+     * @param rawGa raw group address, -1 for all
+     * @param fromMicros start of the range in microseconds since the epoch
+     * @param toMicros end of the range (exclusive)
+     */
+    public List<ArchiveFormat.Block> query(int rawGa, long fromMicros, long toMicros) throws IOException {
+        List<ArchiveFormat.Block> blocks = new ArrayList<>();
+        for (ArchiveFormat.IndexEntry entry : index) {
+            if ((rawGa < 0 || entry.getGa() == rawGa) && entry.getMaxTs() >= fromMicros && entry.getMinTs() < toMicros) {
+                blocks.add(ArchiveFormat.decode(buf, entry.getOffset()));
+            }
+        }
+        return blocks;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static void main(String[] args) {
+        Args.parseOrExit(ArchiveReader.class, args);
+        try {
+            int rawGa = ga.isEmpty() ? -1 : new GroupAddress(ga).getRawAddress();
+            long fromMicros = from.isEmpty() ? Long.MIN_VALUE : toMicros(from);
+            long toMicros = to.isEmpty() ? Long.MAX_VALUE : toMicros(to);
+            File[] segments = new File(archiveDir).listFiles((d, name) -> name.startsWith("knx-") && name.endsWith(".seg"));
+            if (segments == null) {
+                System.err.println("archive directory " + archiveDir + " not found");
+                System.exit(1);
+            }
+            Arrays.sort(segments);
+            for (File segment : segments) {
+                try (ArchiveReader reader = new ArchiveReader(segment)) {
+                    if (indexOnly) {
+                        for (ArchiveFormat.IndexEntry e : reader.getIndex()) {
+                            System.out.println(segment.getName() + ";" + new GroupAddress(e.getGa()) + ";" + e.getKind() + ";"
+                                    + e.getCount() + ";" + format(e.getMinTs()) + ";" + format(e.getMaxTs()));
+                        }
+                        continue;
+                    }
+                    for (ArchiveFormat.Block b : reader.query(rawGa, fromMicros, toMicros)) {
+                        String gaString = new GroupAddress(b.getGa()).toString();
+                        for (int i = 0; i < b.getCount(); i++) {
+                            long ts = b.getTs(i);
+                            if (ts >= fromMicros && ts < toMicros) {
+                                System.out.println(format(ts) + ";" + new IndividualAddress(b.getSrc(i)) + ";" + gaString + ";"
+                                        + b.getEvType(i) + ";" + b.getValue(i));
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("skipping " + segment + ": " + e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static long toMicros(String s) {
+        LocalDateTime t = s.length() <= 10 ? LocalDate.parse(s).atStartOfDay() : LocalDateTime.parse(s);
+        Instant i = t.atZone(ZoneId.systemDefault()).toInstant();
+        return i.getEpochSecond() * 1000000L + i.getNano() / 1000;
+    }
+
+    private static String format(long micros) {
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(micros / 1000000, (micros % 1000000) * 1000), ZoneId.systemDefault()).toString();
+    }
+}
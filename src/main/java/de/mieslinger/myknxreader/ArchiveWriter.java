@@ -0,0 +1,225 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Archives the written events into one segment file per day, see
+ * ArchiveFormat. Events are collected per GA and written as a block once
+ * blockSize events of the GA are collected, on run() and when the day
+ * changes. The index footer is written when the segment is closed, a
+ * segment without footer (e.g. after a crash) is rescanned and continued.
+ * <p>
+ * An event of an earlier day that arrives after the change of day (e.g.
+ * from the spool) goes to the current segment, the index has the real
+ * time range of every block.
+ *
+ * @author mieslingert
+ */
+public class ArchiveWriter implements Runnable {
+
+    private File dir;
+    private int blockSize;
+    private final ArchiveFormat.Block[] pending = new ArchiveFormat.Block[65536];
+    private LocalDate day;
+    private File file;
+    private FileChannel channel;
+    private long position;
+    private List<ArchiveFormat.IndexEntry> index;
+    private long blocksWritten = 0;
+    private final static Logger logger = LoggerFactory.getLogger(ArchiveWriter.class);
+
+    private ArchiveWriter() {
+    }
+
+    /**
+     * @param blockSize max number of events per block
+     */
+    public ArchiveWriter(String dir, int blockSize) throws IOException {
+        this.dir = new File(dir);
+        this.blockSize = blockSize;
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new IOException("unable to create archive directory " + dir);
+        }
+        logger.info("archiving events to {}, {} events per block", dir, blockSize);
+    }
+
+    static String segmentName(LocalDate day) {
+        return "knx-" + day + ".seg";
+    }
+
+    /**
+     * Archives the decoded events of a written batch.
+     */
+    public synchronized void append(List<KNXEvent> batch) {
+        try {
+            for (KNXEvent kev : batch) {
+                DptDecoder.Kind kind = kev.getKind();
+                if (kind == null) {
+                    continue;
+                }
+                long tsMicros = kev.getTsMicros();
+                LocalDate evDay = Instant.ofEpochSecond(tsMicros / 1000000).atZone(ZoneId.systemDefault()).toLocalDate();
+                if (day == null || evDay.isAfter(day)) {
+                    roll(evDay);
+                }
+                int ga = kev.getRawDestination();
+                ArchiveFormat.Block block = pending[ga];
+                if (block != null && block.getKind() != kind) {
+                    // DPT of the GA changed, the block has one kind only
+                    writeBlock(block);
+                    block = null;
+                }
+                if (block == null) {
+                    block = new ArchiveFormat.Block(ga, kind, 16);
+                    pending[ga] = block;
+                }
+                block.add(kev);
+                if (block.getCount() >= blockSize) {
+                    writeBlock(block);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("unable to write archive segment {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes all collected events, run periodically.
+     */
+    @Override
+    public synchronized void run() {
+        try {
+            if (channel != null) {
+                writePending();
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            logger.warn("unable to write archive segment {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes all collected events and the index of the current segment.
+     */
+    public synchronized void close() {
+        try {
+            closeSegment();
+        } catch (IOException e) {
+            logger.warn("unable to close archive segment {}: {}", file, e.getMessage());
+        }
+    }
+
+    public synchronized long getBlocksWritten() {
+        return blocksWritten;
+    }
+
+    private void roll(LocalDate newDay) throws IOException {
+        closeSegment();
+        day = newDay;
+        file = new File(dir, segmentName(day));
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = new ArrayList<>();
+        long size = channel.size();
+        if (size < ArchiveFormat.SEGMENT_MAGIC.length) {
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(ArchiveFormat.SEGMENT_MAGIC), 0);
+            position = ArchiveFormat.SEGMENT_MAGIC.length;
+            logger.info("new archive segment {}", file);
+            return;
+        }
+        // continue an existing segment: keep the complete blocks, drop
+        // the footer or a partly written block
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        byte[] magic = new byte[ArchiveFormat.SEGMENT_MAGIC.length];
+        buf.get(magic);
+        if (!Arrays.equals(magic, ArchiveFormat.SEGMENT_MAGIC)) {
+            channel.close();
+            channel = null;
+            throw new IOException(file + " is not an archive segment");
+        }
+        ArchiveFormat.IndexEntry entry;
+        while ((entry = ArchiveFormat.readHeader(buf)) != null) {
+            index.add(entry);
+        }
+        position = buf.position();
+        channel.truncate(position);
+        logger.info("continuing archive segment {} with {} blocks", file, index.size());
+    }
+
+    private void closeSegment() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        writePending();
+        ByteBuffer footer = ByteBuffer.allocate(index.size() * ArchiveFormat.INDEX_ENTRY + ArchiveFormat.TRAILER);
+        for (ArchiveFormat.IndexEntry entry : index) {
+            entry.write(footer);
+        }
+        footer.putInt(index.size());
+        footer.putLong(position);
+        footer.put(ArchiveFormat.INDEX_MAGIC);
+        footer.flip();
+        channel.write(footer, position);
+        channel.force(true);
+        channel.close();
+        channel = null;
+        logger.info("closed archive segment {}, {} blocks, {} bytes", file, index.size(), position + footer.limit());
+    }
+
+    private void writePending() throws IOException {
+        for (ArchiveFormat.Block block : pending) {
+            if (block != null && block.getCount() > 0) {
+                writeBlock(block);
+            }
+        }
+    }
+
+    private void writeBlock(ArchiveFormat.Block block) throws IOException {
+        byte[] bytes = ArchiveFormat.encode(block);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        long offset = position;
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+        index.add(new ArchiveFormat.IndexEntry(block.getGa(), block.getKind(), block.getCount(),
+                block.getMinTs(), block.getMaxTs(), offset));
+        blocksWritten++;
+        block.clear();
+    }
+}
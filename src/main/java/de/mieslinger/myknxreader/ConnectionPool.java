@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Small pool of DB connections shared by the DbWriter workers. A worker keeps
+ * its connection as long as it works, because its prepared statements belong
+ * to it. A broken connection is invalidated and the worker borrows a new one,
+ * so a reconnect only affects that worker.
+ * <p>
+ * The number of open connections is limited to maxSize, which therefore has
+ * to be at least the number of workers. Reconnects of a worker go through
+ * invalidate() and borrow(), so they stay within the limit.
+ *
+ * @author mieslingert
+ */
+public class ConnectionPool {
+
+    private String jdbcUrl;
+    private String user;
+    private String password;
+    private int maxSize;
+    private final LinkedBlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+    private Semaphore permits;
+    private final static Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private ConnectionPool() {
+    }
+
+    public ConnectionPool(String jdbcClass, String jdbcUrl, String user, String password, int maxSize) throws ClassNotFoundException {
+        Class.forName(jdbcClass);
+        this.jdbcUrl = jdbcUrl;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize);
+        logger.info("ConnectionPool with max {} connections", maxSize);
+    }
+
+    /**
+     * Returns an idle connection or opens a new one.
+     *
+     * @throws SQLException if no connection became available within timeout
+     * or the connect failed
+     */
+    public Connection borrow(long timeoutMillis) throws Exception {
+        Connection conn;
+        while ((conn = idle.pollFirst()) != null) {
+            if (conn.isValid(2)) {
+                return conn;
+            }
+            close(conn);
+        }
+        if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            // maybe another worker has returned one meanwhile
+            conn = idle.pollFirst();
+            if (conn != null) {
+                return conn;
+            }
+            throw new SQLException("no DB connection available, " + maxSize + " in use");
+        }
+        try {
+            return DbWriter.connect(jdbcUrl, user, password);
+        } catch (Exception e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Hands a working connection back.
+     */
+    public void release(Connection conn) {
+        if (conn != null) {
+            idle.offerFirst(conn);
+        }
+    }
+
+    /**
+     * Closes a broken connection and frees its slot.
+     */
+    public void invalidate(Connection conn) {
+        if (conn != null) {
+            close(conn);
+        }
+    }
+
+    private void close(Connection conn) {
+        try {
+            conn.close();
+        } catch (Exception e) {
+            // broken anyway
+        }
+        permits.release();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+}
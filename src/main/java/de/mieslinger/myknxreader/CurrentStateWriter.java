@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tuwien.auto.calimero.IndividualAddress;
+
+/**
+ * Maintains knx_current, one row per GA with its last value, for SQL
+ * reports on the current state. Runs periodically on its own connection and
+ * upserts the GAs the LastValueCache got a value for since the previous run,
+ * so a GA costs at most one upsert per run however many telegrams arrived.
+ * <p>
+ * When knx_current is created or empty it is first filled from the newest
+ * knx_log row of every GA. An upsert never replaces a newer row, so the
+ * order of rebuild and live values does not matter.
+ *
+ * @author mieslingert
+ */
+public class CurrentStateWriter implements Runnable {
+
+    private static final String UPDATE = " on duplicate key update"
+            + " src_addr = if(values(ts) >= ts, values(src_addr), src_addr),"
+            + " dst_desc = if(values(ts) >= ts, values(dst_desc), dst_desc),"
+            + " dpt = if(values(ts) >= ts, values(dpt), dpt),"
+            + " value = if(values(ts) >= ts, values(value), value),"
+            // last, the assignments above compare against the old ts
+            + " ts = greatest(ts, values(ts))";
+    private LastValueCache lastValues;
+    private String jdbcUrl;
+    private String user;
+    private String password;
+    private TableRegistry tables;
+    private Connection conn;
+    private boolean rebuilt = false;
+    private long flushed = 0;
+    private final static Logger logger = LoggerFactory.getLogger(CurrentStateWriter.class);
+
+    private CurrentStateWriter() {
+    }
+
+    public CurrentStateWriter(LastValueCache lastValues, String jdbcUrl, String user, String password, TableRegistry tables) {
+        this.lastValues = lastValues;
+        this.jdbcUrl = jdbcUrl;
+        this.user = user;
+        this.password = password;
+        this.tables = tables;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (conn == null || !conn.isValid(5)) {
+                closeConnection();
+                conn = DbWriter.connect(jdbcUrl, user, password);
+            }
+            if (!rebuilt) {
+                rebuild();
+                rebuilt = true;
+            }
+            // values updated while collecting are written again next run
+            long sequence = lastValues.getSequence();
+            List<LastValueCache.LastValue> changed = lastValues.changedSince(flushed);
+            if (!changed.isEmpty()) {
+                long start = System.currentTimeMillis();
+                upsert(changed);
+                logger.debug("{} upserted {} GAs in {} ms", TableRegistry.CURRENT_TABLE, changed.size(),
+                        System.currentTimeMillis() - start);
+            }
+            flushed = sequence;
+        } catch (Exception e) {
+            logger.warn("unable to update {}, retrying next run: {}", TableRegistry.CURRENT_TABLE, e.getMessage());
+            closeConnection();
+        }
+    }
+
+    private void closeConnection() {
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.close();
+        } catch (Exception e) {
+            // broken anyway
+        }
+        conn = null;
+    }
+
+    private void upsert(List<LastValueCache.LastValue> changed) throws Exception {
+        PreparedStatement ps = conn.prepareStatement("insert into " + TableRegistry.CURRENT_TABLE
+                + " (dst_addr, ts, src_addr, dst_desc, dpt, value) values (?,?,?,?,?,?)" + UPDATE);
+        try {
+            for (LastValueCache.LastValue v : changed) {
+                GaDescriptor desc = v.getDescriptor();
+                ps.setString(1, desc.getAddressString());
+                ps.setTimestamp(2, KNXEvent.sqlTs(v.getTsMicros()));
+                ps.setString(3, new IndividualAddress(v.getSrc()).toString());
+                ps.setString(4, desc.getName());
+                ps.setString(5, desc.getDpt());
+                ps.setString(6, lastValues.format(v));
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } finally {
+            ps.close();
+        }
+    }
+
+    /**
+     * Fills a new or empty knx_current from the newest knx_log row of every
+     * GA, a single group by over knx_log that is only done once.
+     */
+    private void rebuild() throws Exception {
+        boolean created = tables.ensureCurrentTable(conn);
+        if (!created) {
+            PreparedStatement ps = conn.prepareStatement("select 1 from " + TableRegistry.CURRENT_TABLE + " limit 1");
+            ResultSet rs = ps.executeQuery();
+            boolean empty = !rs.next();
+            rs.close();
+            ps.close();
+            if (!empty) {
+                return;
+            }
+        }
+        logger.info("rebuilding {} from knx_log", TableRegistry.CURRENT_TABLE);
+        long start = System.currentTimeMillis();
+        PreparedStatement ps = conn.prepareStatement("insert into " + TableRegistry.CURRENT_TABLE
+                + " (dst_addr, ts, src_addr, dst_desc, dpt, value)"
+                + " select l.dst_addr, l.ts, l.src_addr, l.dst_desc, l.dpt, l.value from knx_log l"
+                + " join (select dst_addr, max(ts) ts from knx_log group by dst_addr) m"
+                + " on l.dst_addr = m.dst_addr and l.ts = m.ts" + UPDATE);
+        int rows = ps.executeUpdate();
+        ps.close();
+        logger.info("rebuilt {} from knx_log, {} rows in {} ms", TableRegistry.CURRENT_TABLE, rows,
+                System.currentTimeMillis() - start);
+    }
+}
@@ -8,14 +8,14 @@ package de.mieslinger.myknxreader;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import tuwien.auto.calimero.GroupAddress;
-import tuwien.auto.calimero.IndividualAddress;
-import tuwien.auto.calimero.datapoint.DatapointModel;
-import tuwien.auto.calimero.datapoint.StateDP;
 
 /**
  *
@@ -24,18 +24,27 @@ import tuwien.auto.calimero.datapoint.StateDP;
 public class DbWriter implements Runnable {
 
     private boolean keepOnRunning = true;
-    private String jdbcClass;
-    private String jdbcUrl;
-    private String user;
-    private String password;
-    private boolean logTableExists = false;
+    private ConnectionPool pool;
+    private int batchSize;
+    private long flushInterval;
     private Connection conn;
-    private ConcurrentLinkedQueue<KNXEvent> queue;
-    private DatapointModel<StateDP> datapoints;
-    private PreparedStatement checkTableExists;
-    private PreparedStatement createTable;
+    private EventRingBuffer ring;
+    private GaTable gaTable;
+    private TableRegistry tables;
+    private StatementCache statements;
+    private EventSpool spool;
+    private EventTrace trace;
+    private RecordingFilter filter;
+    private RollupWriter rollups;
+    private LagStats lag;
+    private PipelineMetrics metrics;
+    private ArchiveWriter archive;
+    private boolean dbAvailable = true;
+    private long nextReconnect = 0;
+    private long reconnectDelay = MIN_RECONNECT_DELAY;
+    private static final long MIN_RECONNECT_DELAY = 1000;
+    private static final long MAX_RECONNECT_DELAY = 60000;
     private PreparedStatement insertLog;
-    private PreparedStatement cleanupLog;
     private PreparedStatement insertData;
 
     private final static Logger logger = LoggerFactory.getLogger(DbWriter.class);
@@ -43,16 +52,16 @@ public class DbWriter implements Runnable {
     private DbWriter() {
     }
 
-    public DbWriter(String jdbcClass, String jdbcUrl, String user, String password, ConcurrentLinkedQueue<KNXEvent> queue, DatapointModel<StateDP> datapoints) {
-        this.jdbcClass = jdbcClass;
-        this.jdbcUrl = jdbcUrl;
-        this.user = user;
-        this.password = password;
-        this.queue = queue;
-        this.datapoints = datapoints;
+    public DbWriter(ConnectionPool pool, EventRingBuffer ring, GaTable gaTable, TableRegistry tables, int batchSize, long flushInterval, int statementCacheSize) {
+        this.pool = pool;
+        this.ring = ring;
+        this.gaTable = gaTable;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.tables = tables;
+        this.statements = new StatementCache(statementCacheSize);
         try {
-            Class.forName(jdbcClass);
-            conn = DriverManager.getConnection(jdbcUrl, user, password);
+            conn = connect();
             if (conn.isValid(5)) {
                 logger.info("Successfully connected to DB");
             }
@@ -60,19 +69,119 @@ public class DbWriter implements Runnable {
             logger.error("DB Connection failed on initial connection, exiting", e);
             System.exit(1);
         }
-        logger.info("DbWriter instantiated");
+        logger.info("DbWriter instantiated, batch size {}, flush interval {} ms", batchSize, flushInterval);
+    }
+
+    /**
+     * Per event trace output, null to disable.
+     */
+    public void setEventTrace(EventTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Recording policies applied to decoded events, null to record
+     * everything.
+     */
+    public void setRecordingFilter(RecordingFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Rollups of the data tables, null to disable.
+     */
+    public void setRollupWriter(RollupWriter rollups) {
+        this.rollups = rollups;
+        if (rollups != null) {
+            rollups.setStatements(statements);
+        }
+    }
+
+    /**
+     * End-to-end lag of the written events, null to disable.
+     */
+    public void setLagStats(LagStats lag) {
+        this.lag = lag;
+    }
+
+    /**
+     * Pipeline metrics, null to disable.
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Written events are also appended to the archive, null to disable.
+     */
+    public void setArchive(ArchiveWriter archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Events are written to the spool while the DB is unavailable and
+     * replayed once it is back. Without spool the writer blocks until the DB
+     * is back.
+     */
+    public void setSpool(EventSpool spool) {
+        this.spool = spool;
+    }
+
+    /**
+     * Loads the list of existing tables and creates all tables needed for the
+     * registered group addresses. Has to be called before the writer is
+     * started.
+     */
+    public void provisionTables() {
+        try {
+            tables.load(conn);
+        } catch (Exception e) {
+            logger.warn("unable to load table list from information_schema: {}", e.getMessage());
+        }
+        tables.provision(conn, gaTable.getDescriptors());
     }
 
     @Override
     public void run() {
         while (keepOnRunning) {
             try {
-                KNXEvent kev = queue.poll();
-                if (kev != null) {
-                    persist(kev);
+                if (spool != null && !dbAvailable) {
+                    // keep the ring buffer empty while the DB is away
+                    moveRingToSpool();
+                    if (!reconnect()) {
+                        ring.await(1000);
+                        continue;
+                    }
+                }
+
+                // once something is spooled the producer only appends to the
+                // spool, so what is left in the ring buffer is older
+                boolean fromSpool = spool != null && !spool.isEmpty() && ring.isEmpty();
+                List<KNXEvent> batch = fromSpool ? readSpool() : drain();
+                if (batch.isEmpty()) {
+                    if (rollups != null && !fromSpool && dbAvailable && (spool == null || spool.isEmpty())) {
+                        // nothing received for a whole flush interval
+                        rollups.closeExpired(System.currentTimeMillis() - 1000);
+                        writeRollups();
+                    }
+                    continue;
+                }
+
+                if (spool == null) {
+                    tryAndReconnect();
+                    flush(batch);
+                } else if (connectionValid() && flush(batch)) {
+                    if (fromSpool) {
+                        spool.ack();
+                    }
                 } else {
-                    Thread.sleep(5000);
-                    System.gc();
+                    dbAvailable = false;
+                    if (fromSpool) {
+                        spool.rewind();
+                    } else {
+                        spoolBatch(batch);
+                    }
+                    logger.warn("DB not available, {} bytes spooled in {}", spool.getSpooledBytes(), spool.getDirectory());
                 }
             } catch (Exception e) {
                 logger.warn("DbWriter Exception: ", e);
@@ -80,202 +189,428 @@ public class DbWriter implements Runnable {
         }
     }
 
-    private void persist(KNXEvent kev) {
-        // DEBUG:
-        // check that we get the event and can decode it
-        try {
-            IndividualAddress sAddr = kev.getEv().getSourceAddr();
-            GroupAddress dAddr = kev.getEv().getDestination();
-            String val = kev.asString();
-            String desc = datapoints.get(dAddr).getName();
-            String dpt = datapoints.get(dAddr).getDPT();
-            logger.debug("{} -> {} ({}): {}, DPT: {}", sAddr, dAddr, desc, val, dpt);
+    /**
+     * Reads the next batch from the spool at full speed.
+     */
+    private List<KNXEvent> readSpool() throws Exception {
+        List<KNXEvent> raw = spool.read(batchSize);
+        List<KNXEvent> batch = new ArrayList<>(raw.size());
+        for (KNXEvent kev : raw) {
+            try {
+                decode(kev);
+                batch.add(kev);
+            } catch (Exception e) {
+                if (metrics != null) {
+                    metrics.decodeFailure();
+                }
+                logger.warn("unable to decode spooled event from {} to GA {}: {}", kev.getSourceAddr(), kev.getDestination(), e.getMessage());
+            }
+        }
+        if (batch.isEmpty()) {
+            // nothing to write, but don't read the same events again
+            spool.ack();
+        }
+        return batch;
+    }
 
-        } catch (Exception e) {
-            logger.error("Exception decoding event from " + kev.getEv().getSourceAddr().toString() + " to GA " + kev.getEv().getDestination().toString() + " :" + e.toString());
-            e.printStackTrace();
+    private void decode(KNXEvent kev) throws Exception {
+        kev.decode(gaTable.get(kev.getRawDestination()));
+    }
+
+    private void moveRingToSpool() throws Exception {
+        KNXEvent kev;
+        while ((kev = ring.poll()) != null) {
+            spool.append(kev);
         }
+        spool.sync();
+    }
 
-        tryAndReconnect();
-        checkAndCreateLogTable(kev);
-        checkAndCreateDataTable(kev);
+    private void spoolBatch(List<KNXEvent> batch) throws Exception {
+        for (KNXEvent kev : batch) {
+            spool.append(kev);
+        }
+        spool.sync();
     }
 
-    private void checkAndCreateLogTable(KNXEvent e) {
-        // select 1 from table name
-        if (!logTableExists) {
-            try {
-                checkTableExists = conn.prepareStatement("select 1 from knx_log");
-                checkTableExists.execute();
-                ResultSet rs = checkTableExists.getResultSet();
-                rs.close();
-                checkTableExists.close();
-                logTableExists = true;
-            } catch (Exception ex) {
-                // -> Exception -> create table
-                logger.info("Table knx_log does not exist, creating");
+    /**
+     * Collects events from the ring buffer until either batchSize events are
+     * available or flushInterval ms have passed since the first event of the
+     * batch arrived. Returns an empty list if the ring buffer stayed empty for
+     * a whole flush interval.
+     */
+    private List<KNXEvent> drain() {
+        List<KNXEvent> batch = new ArrayList<>(batchSize);
+        long deadline = System.currentTimeMillis() + flushInterval;
+        while (batch.size() < batchSize) {
+            KNXEvent kev = ring.poll();
+            if (kev != null) {
                 try {
-                    Connection con = DriverManager.getConnection(jdbcUrl, user, password);
-                    createTable = con.prepareStatement("create table knx_log ("
-                            + "ts timestamp(6) NOT NULL DEFAULT current_timestamp(6),"
-                            + "src_addr varchar(16) not null,"
-                            + "dst_addr varchar(16) not null,"
-                            + "dst_desc varchar(400),"
-                            + "dpt varchar(10) not null,"
-                            + "value varchar(40) not null,"
-                            + "key (ts),"
-                            + "key (src_addr),"
-                            + "key (dst_addr)"
-                            + ")");
-                    createTable.executeUpdate();
-                    createTable.close();
-                    logger.info("created table knx_log");
-                    con.close();
-                    logTableExists = true;
-                } catch (Exception exc) {
-                    logger.warn("unexpected exception during create table knx_log: {}", exc.getMessage());
-                    exc.printStackTrace();
+                    decode(kev);
+                } catch (Exception e) {
+                    if (metrics != null) {
+                        metrics.decodeFailure();
+                    }
+                    logger.warn("unable to decode event from {} to GA {}: {}", kev.getSourceAddr(), kev.getDestination(), e.getMessage());
+                    continue;
+                }
+                if (batch.isEmpty()) {
+                    deadline = System.currentTimeMillis() + flushInterval;
+                }
+                batch.add(kev);
+                continue;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || (spool != null && !spool.isEmpty())) {
+                break;
+            }
+            ring.await(remaining);
+        }
+        return batch;
+    }
+
+    /**
+     * Writes a batch of decoded events, package private for the benchmarks.
+     *
+     * @return false if the batch could not be written because the connection
+     * to the DB is gone
+     */
+    boolean flush(List<KNXEvent> batch) {
+        long start = System.currentTimeMillis();
+        if (trace != null && trace.isEnabled()) {
+            for (KNXEvent kev : batch) {
+                trace.trace(kev);
+            }
+        }
+
+        // the policies only apply to the data tables, knx_log gets every
+        // event
+        List<KNXEvent> recorded = batch;
+        if (filter != null) {
+            recorded = new ArrayList<>(batch.size());
+            for (KNXEvent kev : batch) {
+                kev.setRecorded(filter.accept(kev));
+                if (kev.isRecorded()) {
+                    recorded.add(kev);
+                }
+            }
+        }
+
+        // tables are normally provisioned at startup, but DDL causes an
+        // implicit commit in MySQL, so anything missing has to be created
+        // before the transaction is started
+        tables.ensureLogTable(conn);
+        if (tables.isNarrow()) {
+            tables.ensureValueTable(conn);
+            for (KNXEvent kev : batch) {
+                if (kev.getDescriptor().getDataTable() != null && tables.gaId(kev.getDescriptor()) < 0) {
+                    tables.ensureGaTable(conn);
+                    tables.ensureGaId(conn, kev.getDescriptor());
+                }
+            }
+        } else {
+            for (KNXEvent kev : batch) {
+                String tableName = dataTableName(kev);
+                if (tableName != null && !tables.contains(tableName)) {
+                    tables.ensureDataTable(conn, tableName, kev.isFloat());
                 }
             }
         }
 
-        // -> do insert
+        if (rollups != null) {
+            // events are flushed in the order they were received, so no
+            // later event can fall into a bucket ending before the last one,
+            // the recording policies don't apply, rollups see every value
+            rollups.update(conn, batch);
+            rollups.closeExpired(batch.get(batch.size() - 1).getTsMicros() / 1000);
+        }
+
+        int dataRows;
         try {
-            insertLog = conn.prepareStatement("insert into knx_log (ts, src_addr, dst_addr, dst_desc, dpt, value) values (?,?,?,?,?,?)");
-            insertLog.setTimestamp(1, e.getSqlTs());
-            insertLog.setString(2, e.getEv().getSourceAddr().toString());
-            insertLog.setString(3, e.getEv().getDestination().toString());
-            insertLog.setString(4, datapoints.get(e.getEv().getDestination()).getName());
-            insertLog.setString(5, datapoints.get(e.getEv().getDestination()).getDPT());
-            insertLog.setString(6, e.getStringValue());
-            insertLog.executeUpdate();
-            insertLog.close();
-            cleanupLog = conn.prepareStatement("delete from knx_log where ts < date_sub(now(), interval  3 month)");
-            cleanupLog.executeUpdate();
-            cleanupLog.close();
+            dataRows = writeBatch(batch);
         } catch (Exception ex) {
-            logger.warn("unexpected exception during insert data: {}", ex.getMessage());
-            ex.printStackTrace();
+            if (rollups != null) {
+                rollups.rolledBack();
+            }
+            try {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            } catch (Exception exc) {
+                logger.warn("rollback failed: {}", exc.getMessage());
+            }
+            if (spool != null && !connectionValid()) {
+                logger.warn("batch insert of {} events failed, connection lost: {}", batch.size(), ex.getMessage());
+                return false;
+            }
+            logger.warn("batch insert of {} events failed, falling back to single inserts: {}", batch.size(), ex.getMessage());
+            dataRows = writeSingle(batch);
+            writeRollups();
         }
 
+        if (lag != null) {
+            lag.record(batch);
+        }
+        if (metrics != null) {
+            metrics.committed(batch);
+        }
+        if (archive != null) {
+            archive.append(recorded);
+        }
+
+        long duration = System.currentTimeMillis() - start;
+        logger.info("flushed {} events ({} data rows) in {} ms, {} events/s, {} bytes spooled, {} events suppressed by policy",
+                batch.size(), dataRows, duration, duration > 0 ? batch.size() * 1000L / duration : batch.size() * 1000L,
+                spool != null ? spool.getSpooledBytes() : 0, filter != null ? filter.getSuppressed() : 0);
+        return true;
     }
 
-    private void checkAndCreateDataTable(KNXEvent e) {
-        /*    
-     * 5.yyy = vorzeichenloser 8-Bit-Wert, wie Dimm-Wert (0..100 %), Jalousienposition (0..100 %)
-     * 6.yyy = 8-Bit-2-Komplement, z. B. %
-     * 7.yyy = 2 x vorzeichenloser 8-Bit-Wert, z. B. Impulszähler
-     * 8.yyy = 2 x 8-Bit-2-Komplement, z. B. %
-     * 12.yyy = 4 x vorzeichenloser 8-Bit-Wert,z. B. Impulszähler
-     * 13.yyy = 4 x 8-Bit-2-Komplement, z. B. Impulszähler
-        
-     * 9.yyy = 16-Bit-Gleitkommazahl, z. B. Temperatur
-        * 14.yyy = 32-Bit-Gleitkommazahl, z. B. Temperatur
-         */
-        // generate table name
-
-        // GA DPT
-        // 5/0/2 9.001
-        // data_5_0_2_9_001
-        GroupAddress ga = e.getEv().getDestination();
-        StateDP dp = datapoints.get(ga);
-        String dpt = dp.getDPT();
-
-        if (dp.getMainNumber() == 5
-                || dp.getMainNumber() == 6
-                || dp.getMainNumber() == 7
-                || dp.getMainNumber() == 8
-                || dp.getMainNumber() == 9
-                || dp.getMainNumber() == 12
-                || dp.getMainNumber() == 13
-                || dp.getMainNumber() == 14) {
-
-            String tableName = "data_" + ga.toString().replace('/', '_') + "_" + dpt.replace('.', '_');
-
-            // select 1 from table name
-            try {
-                checkTableExists = conn.prepareStatement("select 1 from " + tableName);
-                checkTableExists.execute();
-                ResultSet rs = checkTableExists.getResultSet();
-                rs.close();
-                checkTableExists.close();
-            } catch (Exception ex) {
-                // -> Exception -> create table
-                logger.info("Table {} does not exist, creating", tableName);
-                try {
-                    Connection con = DriverManager.getConnection(jdbcUrl, user, password);
-                    if (e.isFloat()) {
-                        createTable = con.prepareStatement("create table " + tableName + " ("
-                                + "ts timestamp(6) NOT NULL DEFAULT current_timestamp(6),"
-                                + "value double not null,"
-                                + "primary key (ts)"
-                                + ")");
-                    }
-                    if (e.isInteger()) {
-                        createTable = con.prepareStatement("create table " + tableName + " ("
-                                + "ts timestamp(6) NOT NULL DEFAULT current_timestamp(6),"
-                                + "value integer not null,"
-                                + "primary key (ts)"
-                                + ")");
+    /**
+     * Writes all events of the batch in one transaction using JDBC batches,
+     * one per target table.
+     *
+     * @return number of rows written to data tables
+     */
+    private int writeBatch(List<KNXEvent> batch) throws Exception {
+        Map<String, PreparedStatement> used = new HashMap<>();
+        int dataRows = 0;
+        conn.setAutoCommit(false);
+        try {
+            insertLog = insertStatement("knx_log");
+            used.put("knx_log", insertLog);
+            for (KNXEvent e : batch) {
+                setLogParameters(insertLog, e);
+                insertLog.addBatch();
+
+                String tableName = e.isRecorded() ? dataTableName(e) : null;
+                if (tableName != null) {
+                    insertData = used.get(tableName);
+                    if (insertData == null) {
+                        insertData = insertStatement(tableName);
+                        used.put(tableName, insertData);
                     }
-                    createTable.executeUpdate();
-                    createTable.close();
-                    con.close();
-                    logger.info("created table {}", tableName);
-                } catch (Exception exc) {
-                    logger.warn("unexpected exception during create table {}: {}", tableName, exc.getMessage());
-                    exc.printStackTrace();
+                    setDataParameters(insertData, e);
+                    insertData.addBatch();
+                    dataRows++;
                 }
             }
-
-            // -> do insert
-            try {
-                insertData = conn.prepareStatement("insert into " + tableName + " (ts,value) values (?,?)");
-                insertData.setTimestamp(1, e.getSqlTs());
-                if (e.isFloat()) {
-                    insertData.setDouble(2, e.getNumericValue());
+            for (PreparedStatement ps : used.values()) {
+                long start = System.nanoTime();
+                ps.executeBatch();
+                if (metrics != null) {
+                    metrics.insert(System.nanoTime() - start);
                 }
-                if (e.isInteger()) {
-                    insertData.setInt(2, e.getIntegerValue());
+            }
+            if (rollups != null) {
+                rollups.write(conn);
+            }
+            conn.commit();
+            if (rollups != null) {
+                rollups.committed();
+            }
+        } finally {
+            for (PreparedStatement ps : used.values()) {
+                try {
+                    ps.clearBatch();
+                } catch (Exception ex) {
+                    // statement is unusable anyway
                 }
-                insertData.executeUpdate();
-                insertData.close();
+            }
+            statements.closeEvicted();
+        }
+        conn.setAutoCommit(true);
+        return dataRows;
+    }
+
+    /**
+     * Writes the events one by one in autocommit mode, so that a single
+     * failing row (e.g. a duplicate ts in a data table) doesn't take the rest
+     * of the batch with it.
+     *
+     * @return number of rows written to data tables
+     */
+    private int writeSingle(List<KNXEvent> batch) {
+        int dataRows = 0;
+        for (KNXEvent e : batch) {
+            try {
+                insertLog = insertStatement("knx_log");
+                setLogParameters(insertLog, e);
+                executeUpdate(insertLog);
             } catch (Exception ex) {
-                logger.warn("unexpected exception during insert data into {}: {}", tableName, ex.getMessage());
-                ex.printStackTrace();
+                logger.warn("unexpected exception during insert data: {}", ex.getMessage(), ex);
             }
+
+            String tableName = e.isRecorded() ? dataTableName(e) : null;
+            if (tableName != null) {
+                try {
+                    insertData = insertStatement(tableName);
+                    setDataParameters(insertData, e);
+                    executeUpdate(insertData);
+                    dataRows++;
+                } catch (Exception ex) {
+                    logger.warn("unexpected exception during insert data into {}: {}", tableName, ex.getMessage(), ex);
+                }
+            }
+            statements.closeEvicted();
         }
+        return dataRows;
     }
 
-    private void tryAndReconnect() {
-        // sleep 30s after every connection fail
-        boolean connectionOK;
+    /**
+     * Writes the closed rollup buckets in autocommit mode, outside of a
+     * batch transaction.
+     */
+    private void writeRollups() {
+        if (rollups == null) {
+            return;
+        }
         try {
-            connectionOK = conn.isValid(5);
+            rollups.write(conn);
+            rollups.committed();
         } catch (Exception e) {
-            connectionOK = false;
-            logger.warn("Connection to DB broken", e);
+            rollups.rolledBack();
+            logger.warn("unable to write rollups, retrying with the next batch: {}", e.getMessage());
         }
+    }
+
+    private void executeUpdate(PreparedStatement ps) throws Exception {
+        long start = System.nanoTime();
+        ps.executeUpdate();
+        if (metrics != null) {
+            metrics.insert(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the cached insert statement for the table, the SQL is only
+     * built and prepared on a cache miss.
+     */
+    private PreparedStatement insertStatement(String tableName) throws Exception {
+        PreparedStatement ps = statements.get(tableName);
+        if (ps == null) {
+            if ("knx_log".equals(tableName)) {
+                ps = conn.prepareStatement("insert into knx_log (ts, src_addr, dst_addr, dst_desc, dpt, value) values (?,?,?,?,?,?)");
+            } else if (TableRegistry.VALUE_TABLE.equals(tableName)) {
+                ps = conn.prepareStatement("insert into " + TableRegistry.VALUE_TABLE + " (ga_id, ts, value_double, value_long) values (?,?,?,?)");
+            } else {
+                ps = conn.prepareStatement("insert into " + tableName + " (ts,value) values (?,?)");
+            }
+            statements.put(tableName, ps);
+        }
+        return ps;
+    }
 
-        if (connectionOK) {
+    private void setLogParameters(PreparedStatement ps, KNXEvent e) throws Exception {
+        ps.setTimestamp(1, e.getSqlTs());
+        ps.setString(2, e.getSourceAddr().toString());
+        GaDescriptor desc = e.getDescriptor();
+        ps.setString(3, desc.getAddressString());
+        ps.setString(4, desc.getName());
+        ps.setString(5, desc.getDpt());
+        ps.setString(6, e.getStringValue());
+    }
+
+    private void setDataParameters(PreparedStatement ps, KNXEvent e) throws Exception {
+        if (tables.isNarrow()) {
+            ps.setInt(1, tables.gaId(e.getDescriptor()));
+            ps.setTimestamp(2, e.getSqlTs());
+            if (e.isFloat()) {
+                ps.setDouble(3, e.getNumericValue());
+                ps.setNull(4, Types.BIGINT);
+            } else {
+                ps.setNull(3, Types.DOUBLE);
+                ps.setLong(4, e.getLongValue());
+            }
             return;
         }
+        ps.setTimestamp(1, e.getSqlTs());
+        if (e.isFloat()) {
+            ps.setDouble(2, e.getNumericValue());
+        }
+        if (e.isInteger()) {
+            ps.setLong(2, e.getLongValue());
+        }
+    }
 
-        while (!connectionOK) {
-            try {
-                conn = DriverManager.getConnection(jdbcUrl, user, password);
-                connectionOK = true;
-                return;
-            } catch (Exception e) {
+    /**
+     * Returns the name of the data table for the event, or null if the
+     * datapoint type is not stored in a data table. In narrow mode all
+     * values go to knx_value, unless the GA has no id.
+     */
+    private String dataTableName(KNXEvent e) {
+        GaDescriptor desc = e.getDescriptor();
+        if (tables.isNarrow() && desc.getDataTable() != null) {
+            return tables.gaId(desc) >= 0 ? TableRegistry.VALUE_TABLE : null;
+        }
+        return desc.getDataTable();
+    }
+
+    private Connection connect() throws Exception {
+        return pool.borrow(5000);
+    }
+
+    static Connection connect(String jdbcUrl, String user, String password) throws Exception {
+        Properties props = new Properties();
+        props.setProperty("user", user);
+        props.setProperty("password", password);
+        // let MySQL Connector/J turn executeBatch() into multi-row inserts
+        props.setProperty("rewriteBatchedStatements", "true");
+        // statements are cached by StatementCache, so prepare them on the server
+        props.setProperty("useServerPrepStmts", "true");
+        return DriverManager.getConnection(jdbcUrl, props);
+    }
+
+    private boolean connectionValid() {
+        try {
+            return conn != null && conn.isValid(5);
+        } catch (Exception e) {
+            return false;
+        }
+    }
 
+    /**
+     * Tries to connect once, unless the last attempt was less than the
+     * current backoff ago.
+     */
+    private boolean reconnect() {
+        long now = System.currentTimeMillis();
+        if (now < nextReconnect) {
+            return false;
+        }
+        try {
+            if (conn != null) {
+                pool.invalidate(conn);
+                conn = null;
             }
-            if (!connectionOK) {
-                logger.warn("Connection to DB still broken, sleeping");
-                try {
-                    Thread.sleep(600000); // use min 600s in production
-                } catch (Exception e) {
+            conn = connect();
+            statements.invalidate();
+            dbAvailable = true;
+            reconnectDelay = MIN_RECONNECT_DELAY;
+            if (metrics != null) {
+                metrics.reconnect();
+            }
+            logger.info("reconnected to DB");
+            return true;
+        } catch (Exception e) {
+            logger.warn("Connection to DB still broken, retrying in {} s: {}", reconnectDelay / 1000, e.getMessage());
+            nextReconnect = now + reconnectDelay;
+            reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY);
+            return false;
+        }
+    }
 
-                }
+    /**
+     * Blocks until the DB is available again, only used without spool.
+     */
+    private void tryAndReconnect() {
+        if (connectionValid()) {
+            return;
+        }
+        logger.warn("Connection to DB broken");
+        while (!reconnect()) {
+            try {
+                Thread.sleep(Math.max(0, nextReconnect - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
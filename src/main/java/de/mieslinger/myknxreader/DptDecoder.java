@@ -0,0 +1,408 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.nio.charset.StandardCharsets;
+import tuwien.auto.calimero.dptxlator.DPTXlator;
+import tuwien.auto.calimero.dptxlator.TranslatorTypes;
+
+/**
+ * Decodes the ASDU of one datapoint type into a primitive value without
+ * creating a Calimero translator per telegram. One decoder is resolved per
+ * group address at startup (see forDatapoint), the display string is only
+ * built when it's needed and uses a translator that is created once per
+ * decoder.
+ * <p>
+ * A decoder is not thread safe, all events of a group address have to be
+ * decoded by the same thread.
+ *
+ * @author mieslingert
+ */
+public abstract class DptDecoder {
+
+    public enum Kind {
+        BOOLEAN, INTEGER, FLOAT, STRING;
+    }
+
+    protected String dptId;
+    protected int mainNumber;
+    protected Kind kind;
+    protected int minLength;
+    private DPTXlator xlator;
+    private boolean xlatorFailed = false;
+
+    protected DptDecoder(String dptId, int mainNumber, Kind kind, int minLength) {
+        this.dptId = dptId;
+        this.mainNumber = mainNumber;
+        this.kind = kind;
+        this.minLength = minLength;
+    }
+
+    /**
+     * Resolves the decoder for a datapoint type.
+     *
+     * @param mainNumber DPT main number, e.g. 9
+     * @param dptId DPT id, e.g. "9.001"
+     */
+    public static DptDecoder forDatapoint(int mainNumber, String dptId) {
+        /*    
+     * 1.yyy = boolesch, wie Schalten, Bewegen nach oben/unten, Schritt
+     * 3.yyy = boolesch + vorzeichenloser 3-Bit-Wert, z. B. Auf-/Abdimmen
+     * 5.yyy = vorzeichenloser 8-Bit-Wert, wie Dimm-Wert (0..100 %), Jalousienposition (0..100 %)
+     * 6.yyy = 8-Bit-2-Komplement, z. B. %
+     * 7.yyy = 2 x vorzeichenloser 8-Bit-Wert, z. B. Impulszähler
+     * 8.yyy = 2 x 8-Bit-2-Komplement, z. B. %
+     * 9.yyy = 16-Bit-Gleitkommazahl, z. B. Temperatur
+     * 10.yyy = Uhrzeit
+     * 11.yyy = Datum
+     * 12.yyy = 4 x vorzeichenloser 8-Bit-Wert,z. B. Impulszähler
+     * 13.yyy = 4 x 8-Bit-2-Komplement, z. B. Impulszähler
+     * 14.yyy = 32-Bit-Gleitkommazahl, z. B. Temperatur
+     * 16.yyy = String -> 14 Zeichen (14 x 8-Bit)
+     * 17.yyy = Szenennummer
+         */
+        switch (mainNumber) {
+            case 1:
+                return new BooleanDecoder(dptId);
+            case 3:
+                return new ControlDecoder(dptId);
+            case 5:
+                return new Unsigned8Decoder(dptId);
+            case 6:
+                return new Signed8Decoder(dptId);
+            case 7:
+                return new Unsigned16Decoder(dptId);
+            case 8:
+                return new Signed16Decoder(dptId);
+            case 9:
+                return new Float16Decoder(dptId);
+            case 10:
+                return new TimeDecoder(dptId);
+            case 11:
+                return new DateDecoder(dptId);
+            case 12:
+                return new Unsigned32Decoder(dptId);
+            case 13:
+                return new Signed32Decoder(dptId);
+            case 14:
+                return new Float32Decoder(dptId);
+            case 16:
+                return new StringDecoder(dptId);
+            case 17:
+                return new SceneNumberDecoder(dptId);
+            default:
+                return new GenericDecoder(dptId, mainNumber);
+        }
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getDptId() {
+        return dptId;
+    }
+
+    public int getMainNumber() {
+        return mainNumber;
+    }
+
+    /**
+     * @return true if the ASDU is long enough for this datapoint type
+     */
+    public boolean accepts(byte[] asdu) {
+        return asdu.length >= minLength;
+    }
+
+    /**
+     * Value of BOOLEAN (0 or 1) and INTEGER decoders.
+     */
+    public long toLong(byte[] asdu) {
+        return 0;
+    }
+
+    /**
+     * Value of FLOAT decoders.
+     */
+    public double toDouble(byte[] asdu) {
+        return toLong(asdu);
+    }
+
+    /**
+     * Returns the display string, by default the values of the Calimero
+     * translator for the DPT, as stored in knx_log.value.
+     */
+    public String format(byte[] asdu) {
+        if (xlator == null && !xlatorFailed) {
+            try {
+                xlator = TranslatorTypes.createTranslator(mainNumber, dptId);
+            } catch (Exception e) {
+                xlatorFailed = true;
+            }
+        }
+        if (xlator != null) {
+            try {
+                xlator.setData(asdu);
+                return String.join(" ", xlator.getAllValues());
+            } catch (Exception e) {
+                // fall through to hex
+            }
+        }
+        return KNXEvent.toHex(asdu, "");
+    }
+
+    protected static int u8(byte[] asdu, int i) {
+        return asdu[i] & 0xff;
+    }
+
+    protected static int u16(byte[] asdu) {
+        return (u8(asdu, 0) << 8) | u8(asdu, 1);
+    }
+
+    protected static int s32(byte[] asdu) {
+        return (u8(asdu, 0) << 24) | (u8(asdu, 1) << 16) | (u8(asdu, 2) << 8) | u8(asdu, 3);
+    }
+
+    private static class BooleanDecoder extends DptDecoder {
+
+        BooleanDecoder(String dptId) {
+            super(dptId, 1, Kind.BOOLEAN, 1);
+        }
+
+        @Override
+        public long toLong(byte[] asdu) {
+            return asdu[0] & 0x01;
+        }
+    }
+
+    private static class ControlDecoder extends DptDecoder {
+
+        ControlDecoder(String dptId) {
+            super(dptId, 3, Kind.STRING, 1);
+        }
+
+        @Override
+        public long toLong(byte[] asdu) {
+            return asdu[0] & 0x0f;
+        }
+    }
+
+    private static class Unsigned8Decoder extends DptDecoder {
+
+        private float scale = 0;
+
+        Unsigned8Decoder(String dptId) {
+            super(dptId, 5, Kind.INTEGER, 1);
+            // same scaling as DPTXlator8BitUnsigned.getValueUnsigned()
+            if ("5.001".equals(dptId)) {
+                scale = 100.0f;
+            } else if ("5.003".equals(dptId)) {
+                scale = 360.0f;
+            }
+        }
+
+        @Override
+        public long toLong(byte[] asdu) {
+            int raw = u8(asdu, 0);
+            return scale == 0 ? raw : Math.round(raw * scale / 255);
+        }
+    }
+
+    private static class Signed8Decoder extends DptDecoder {
+
+        Signed8Decoder(String dptId) {
+            super(dptId, 6, Kind.INTEGER, 1);
+        }
+
+        @Override
+        public long toLong(byte[] asdu) {
+            return asdu[0];
+        }
+    }
+
+    private static class Unsigned16Decoder extends DptDecoder {
+
+        private int factor = 1;
+
+        Unsigned16Decoder(String dptId) {
+            super(dptId, 7, Kind.INTEGER, 2);
+            // time periods in 10 ms and 100 ms resolution are stored in ms
+            if ("7.003".equals(dptId)) {
+                factor = 10;
+            } else if ("7.004".equals(dptId)) {
+                factor = 100;
+            }
+        }
+
+        @Override
+        public long toLong(byte[] asdu) {
+            return (long) u16(asdu) * factor;
+        }
+    }
+
+    private static class Signed16Decoder extends DptDecoder {
+
+        private int factor = 1;
+
+        Signed16Decoder(String dptId) {
+            super(dptId, 8, "8.010".equals(dptId) ? Kind.FLOAT : Kind.INTEGER, 2);
+            // delta times in 10 ms and 100 ms resolution are stored in ms
+            if ("8.003".equals(dptId)) {
+                factor = 10;
+            } else if ("8.004".equals(dptId)) {
+                factor = 100;
+            }
+        }
+
+        @Override
+        public long toLong(byte[] asdu) {
+            return (long) (short) u16(asdu) * factor;
+        }
+
+        @Override
+        public double toDouble(byte[] asdu) {
+            // 8.010 is a percentage with a resolution of 0.01 %
+            return kind == Kind.FLOAT ? (short) u16(asdu) / 100.0 : toLong(asdu);
+        }
+    }
+
+    private static class Float16Decoder extends DptDecoder {
+
+        Float16Decoder(String dptId) {
+            super(dptId, 9, Kind.FLOAT, 2);
+        }
+
+        @Override
+        public double toDouble(byte[] asdu) {
+            // MEEEEMMM MMMMMMMM, value = 0.01 * M * 2^E, M in two's complement
+            int raw = u16(asdu);
+            int exponent = (raw >> 11) & 0x0f;
+            int mantissa = raw & 0x07ff;
+            if ((raw & 0x8000) != 0) {
+                mantissa -= 2048;
+            }
+            return 0.01 * mantissa * (1 << exponent);
+        }
+    }
+
+    private static class TimeDecoder extends DptDecoder {
+
+        TimeDecoder(String dptId) {
+            super(dptId, 10, Kind.STRING, 3);
+        }
+
+        @Override
+        public String format(byte[] asdu) {
+            return "" + (asdu[0] & 0x1f) + ":" + (asdu[1] & 0x3f) + ":" + (asdu[2] & 0x3f);
+        }
+    }
+
+    private static class DateDecoder extends DptDecoder {
+
+        DateDecoder(String dptId) {
+            super(dptId, 11, Kind.STRING, 3);
+        }
+
+        @Override
+        public String format(byte[] asdu) {
+            int year = asdu[2] & 0x7f;
+            year += year < 90 ? 2000 : 1900;
+            return "" + year + "-" + (asdu[1] & 0x0f) + "-" + (asdu[0] & 0x1f);
+        }
+    }
+
+    private static class Unsigned32Decoder extends DptDecoder {
+
+        Unsigned32Decoder(String dptId) {
+            super(dptId, 12, Kind.INTEGER, 4);
+        }
+
+        @Override
+        public long toLong(byte[] asdu) {
+            return s32(asdu) & 0xffffffffL;
+        }
+    }
+
+    private static class Signed32Decoder extends DptDecoder {
+
+        Signed32Decoder(String dptId) {
+            super(dptId, 13, Kind.INTEGER, 4);
+        }
+
+        @Override
+        public long toLong(byte[] asdu) {
+            return s32(asdu);
+        }
+    }
+
+    private static class Float32Decoder extends DptDecoder {
+
+        Float32Decoder(String dptId) {
+            super(dptId, 14, Kind.FLOAT, 4);
+        }
+
+        @Override
+        public double toDouble(byte[] asdu) {
+            return Float.intBitsToFloat(s32(asdu));
+        }
+    }
+
+    private static class StringDecoder extends DptDecoder {
+
+        StringDecoder(String dptId) {
+            super(dptId, 16, Kind.STRING, 0);
+        }
+
+        @Override
+        public String format(byte[] asdu) {
+            int len = 0;
+            while (len < asdu.length && asdu[len] != 0) {
+                len++;
+            }
+            return new String(asdu, 0, len, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static class SceneNumberDecoder extends DptDecoder {
+
+        SceneNumberDecoder(String dptId) {
+            super(dptId, 17, Kind.INTEGER, 1);
+        }
+
+        @Override
+        public long toLong(byte[] asdu) {
+            return asdu[0] & 0x3f;
+        }
+    }
+
+    /**
+     * Everything else is only stored as display string.
+     */
+    private static class GenericDecoder extends DptDecoder {
+
+        GenericDecoder(String dptId, int mainNumber) {
+            super(dptId, mainNumber, Kind.STRING, 1);
+        }
+    }
+}
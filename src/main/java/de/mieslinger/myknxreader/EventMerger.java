@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Funnels the telegrams of all GroupMonitors into the one EventRingBuffer.
+ * <p>
+ * A telegram that is seen on more than one line coupler arrives once per
+ * gateway. A telegram with the same source, destination and ASDU that was
+ * received from another gateway within the de-duplication window is dropped.
+ * Repetitions on the same gateway are real telegrams and are kept.
+ * <p>
+ * The recently seen telegrams are kept in a small lossy hash table, a
+ * collision just means a duplicate might get through. The ring buffer has a
+ * single producer, offer() is synchronized so the GroupMonitor threads take
+ * turns. The timestamp is taken inside, so events stay in timestamp order.
+ *
+ * @author mieslingert
+ */
+public class EventMerger implements Runnable {
+
+    private static final int SLOTS = 4096;
+    private EventRingBuffer ring;
+    private GatewayStats[] gateways;
+    private long windowMicros;
+    private final long[] keys = new long[SLOTS];
+    private final int[] asduHashes = new int[SLOTS];
+    private final long[] seenAt = new long[SLOTS];
+    private final int[] seenBy = new int[SLOTS];
+    private TelegramCapture.Writer capture;
+    private PipelineMetrics metrics;
+    private UnknownGaTracker unknownGas;
+    private LastValueCache lastValues;
+    private final static Logger logger = LoggerFactory.getLogger(EventMerger.class);
+
+    private EventMerger() {
+    }
+
+    /**
+     * @param windowMillis de-duplication window, 0 to disable
+     */
+    public EventMerger(EventRingBuffer ring, GatewayStats[] gateways, long windowMillis) {
+        this.ring = ring;
+        this.gateways = gateways;
+        this.windowMicros = windowMillis * 1000;
+        Arrays.fill(seenBy, -1);
+    }
+
+    /**
+     * Every telegram passing the de-duplication is also written to the
+     * capture, null to disable.
+     */
+    public void setCapture(TelegramCapture.Writer capture) {
+        this.capture = capture;
+    }
+
+    /**
+     * Counts the received telegrams, null to disable.
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Collects the telegrams to GAs missing in the GA file, null to disable.
+     */
+    public void setUnknownGaTracker(UnknownGaTracker unknownGas) {
+        this.unknownGas = unknownGas;
+    }
+
+    /**
+     * Keeps the last value of every GA, null to disable.
+     */
+    public void setLastValues(LastValueCache lastValues) {
+        this.lastValues = lastValues;
+    }
+
+    /**
+     * Called for a telegram to a GA missing in the GA file instead of
+     * offer().
+     */
+    public void unknownGa(int src, int dst, byte[] asdu) {
+        if (metrics != null) {
+            metrics.unknownGa();
+        }
+        if (unknownGas != null) {
+            unknownGas.record(src, dst, asdu);
+        }
+    }
+
+    /**
+     * Called by the GroupMonitor of gateway gw for every telegram.
+     *
+     * @return false if the telegram was dropped as duplicate or could not
+     * be stored
+     */
+    public synchronized boolean offer(int gw, KNXEventEnum evType, int src, int dst, byte[] asdu) {
+        long ts = KNXEvent.nowMicros();
+        gateways[gw].received();
+        if (metrics != null) {
+            metrics.received(evType);
+        }
+        if (gateways.length > 1 && windowMicros > 0) {
+            long key = ((long) evType.ordinal() << 32) | ((long) (src & 0xffff) << 16) | (dst & 0xffff);
+            int asduHash = Arrays.hashCode(asdu);
+            int slot = (int) ((key * 0x9e3779b97f4a7c15L + asduHash) >>> 52) & (SLOTS - 1);
+            if (seenBy[slot] >= 0 && seenBy[slot] != gw && keys[slot] == key && asduHashes[slot] == asduHash
+                    && ts - seenAt[slot] <= windowMicros) {
+                gateways[gw].duplicate();
+                return false;
+            }
+            keys[slot] = key;
+            asduHashes[slot] = asduHash;
+            seenAt[slot] = ts;
+            seenBy[slot] = gw;
+        }
+        if (capture != null) {
+            try {
+                capture.write(ts, evType, src, dst, asdu);
+            } catch (IOException e) {
+                logger.warn("capture failed, disabled: {}", e.getMessage());
+                capture = null;
+            }
+        }
+        if (lastValues != null) {
+            lastValues.update(evType, src, dst, ts, asdu);
+        }
+        return ring.offer(evType, src, dst, ts, asdu);
+    }
+
+    public GatewayStats[] getGateways() {
+        return gateways;
+    }
+
+    /**
+     * Logs rate and link state of every gateway, run periodically.
+     */
+    @Override
+    public void run() {
+        for (GatewayStats g : gateways) {
+            logger.info("gateway {}: link {} since {} s, {} events/s, {} received, {} duplicates dropped, {} link losses, {} reconnects, {} s down",
+                    g.getName(), g.isLinkOpen() ? "up" : "down", (System.currentTimeMillis() - g.getLinkChangedAt()) / 1000,
+                    String.format("%.1f", g.rate()), g.getReceived(), g.getDuplicates(), g.getLinkLosses(),
+                    g.getReconnects(), g.getDowntime() / 1000);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded single producer / single consumer ring buffer between GroupMonitor
+ * and DbWriter. With several gateways the EventMerger serializes the
+ * producers. The slots are preallocated and hold the raw telegram only,
+ * decoding happens on the consumer side.
+ * <p>
+ * When the buffer is full the configured OverflowPolicy applies:
+ * <ul>
+ * <li>block: the producer waits until the consumer has freed a slot</li>
+ * <li>dropOldest: the oldest event is discarded</li>
+ * <li>spill: the event is appended to the EventSpool, DbWriter replays it
+ * from there</li>
+ * </ul>
+ *
+ * @author mieslingert
+ */
+public class EventRingBuffer {
+
+    public enum OverflowPolicy {
+        block, dropOldest, spill;
+    }
+
+    public static final int MAX_ASDU = 14;
+    static final KNXEventEnum[] EVENT_TYPES = KNXEventEnum.values();
+
+    private int capacity;
+    private int mask;
+    private OverflowPolicy policy;
+    private EventSpool spool;
+
+    private byte[] evTypes;
+    private int[] srcs;
+    private int[] dsts;
+    private long[] timestamps;
+    private byte[] asduLens;
+    private byte[] asdus;
+
+    // next slot to read, advanced by the consumer and by the producer when
+    // dropping the oldest event
+    private final AtomicLong head = new AtomicLong();
+    // next slot to write, only advanced by the producer
+    private volatile long tail = 0;
+    private volatile Thread consumer;
+    private volatile boolean consumerWaiting = false;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong truncated = new AtomicLong();
+
+    private final static Logger logger = LoggerFactory.getLogger(EventRingBuffer.class);
+
+    private EventRingBuffer() {
+    }
+
+    /**
+     * @param capacity number of slots, rounded up to the next power of two
+     * @param policy what to do when the buffer is full
+     * @param spool only used with OverflowPolicy.spill
+     */
+    public EventRingBuffer(int capacity, OverflowPolicy policy, EventSpool spool) {
+        if (policy == OverflowPolicy.spill && spool == null) {
+            throw new IllegalArgumentException("overflow policy spill needs a spool");
+        }
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.policy = policy;
+        this.spool = spool;
+        evTypes = new byte[this.capacity];
+        srcs = new int[this.capacity];
+        dsts = new int[this.capacity];
+        timestamps = new long[this.capacity];
+        asduLens = new byte[this.capacity];
+        asdus = new byte[this.capacity * MAX_ASDU];
+        logger.info("EventRingBuffer with {} slots, overflow policy {}", this.capacity, policy);
+    }
+
+    /**
+     * Called by the producer only.
+     *
+     * @param ts timestamp in microseconds since the epoch
+     * @return false if the event could not be stored
+     */
+    public boolean offer(KNXEventEnum evType, int src, int dst, long ts, byte[] asdu) {
+        int asduLen = asdu.length;
+        if (asduLen > MAX_ASDU) {
+            if (truncated.getAndIncrement() % 1000 == 0) {
+                logger.warn("ASDU of {} bytes for GA {} truncated to {} bytes", asduLen, dst, MAX_ASDU);
+            }
+            asduLen = MAX_ASDU;
+        }
+
+        // keep the order: once something is spooled everything goes to the
+        // spool until the consumer has read it back
+        if (policy == OverflowPolicy.spill && !spool.isEmpty()) {
+            return spillEvent(evType, src, dst, ts, asdu, asduLen);
+        }
+
+        long t = tail;
+        while (t - head.get() >= capacity) {
+            switch (policy) {
+                case block:
+                    signal();
+                    LockSupport.parkNanos(this, 100000);
+                    break;
+                case dropOldest:
+                    long h = head.get();
+                    if (t - h >= capacity && head.compareAndSet(h, h + 1)) {
+                        if (dropped.getAndIncrement() % 1000 == 0) {
+                            logger.warn("EventRingBuffer full, dropped {} events so far", dropped.get());
+                        }
+                    }
+                    break;
+                case spill:
+                    return spillEvent(evType, src, dst, ts, asdu, asduLen);
+            }
+        }
+
+        int slot = (int) (t & mask);
+        evTypes[slot] = (byte) evType.ordinal();
+        srcs[slot] = src;
+        dsts[slot] = dst;
+        timestamps[slot] = ts;
+        asduLens[slot] = (byte) asduLen;
+        System.arraycopy(asdu, 0, asdus, slot * MAX_ASDU, asduLen);
+        // publishes the slot to the consumer
+        tail = t + 1;
+        signal();
+        return true;
+    }
+
+    /**
+     * Called by the consumer only.
+     *
+     * @return the oldest event or null if there is none
+     */
+    public KNXEvent poll() {
+        while (true) {
+            long h = head.get();
+            if (h >= tail) {
+                return null;
+            }
+            int slot = (int) (h & mask);
+            int off = slot * MAX_ASDU;
+            KNXEvent kev = new KNXEvent(EVENT_TYPES[evTypes[slot]], srcs[slot], dsts[slot], timestamps[slot],
+                    Arrays.copyOfRange(asdus, off, off + asduLens[slot]));
+            // fails if the producer dropped the slot while we were reading it
+            if (head.compareAndSet(h, h + 1)) {
+                return kev;
+            }
+        }
+    }
+
+    /**
+     * Called by the consumer only. Returns as soon as an event is available
+     * or the timeout has passed.
+     */
+    public void await(long timeoutMillis) {
+        consumer = Thread.currentThread();
+        consumerWaiting = true;
+        if (isEmpty()) {
+            LockSupport.parkNanos(this, timeoutMillis * 1000000L);
+        }
+        consumerWaiting = false;
+    }
+
+    public boolean isEmpty() {
+        return head.get() >= tail;
+    }
+
+    public int size() {
+        return (int) (tail - head.get());
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void signal() {
+        if (consumerWaiting) {
+            Thread c = consumer;
+            if (c != null) {
+                LockSupport.unpark(c);
+            }
+        }
+    }
+
+    private boolean spillEvent(KNXEventEnum evType, int src, int dst, long ts, byte[] asdu, int asduLen) {
+        try {
+            if (spool.append(evType.ordinal(), src, dst, ts, asdu, 0, asduLen)) {
+                signal();
+                return true;
+            }
+        } catch (Exception e) {
+            logger.warn("unable to write to spool {}, dropping event: {}", spool.getDirectory(), e.getMessage());
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+}
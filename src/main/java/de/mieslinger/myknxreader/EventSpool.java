@@ -0,0 +1,382 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only on-disk FIFO for raw events, used while the DB is unreachable
+ * or can't keep up. Events are written to segment files of about
+ * segmentSize bytes, every record carries a CRC32. Segments are deleted once
+ * all their events have been acknowledged, i.e. committed to the DB. The
+ * acknowledged position is kept in spool.pos, so after a restart replay
+ * continues where it stopped (events read but not acknowledged are read
+ * again). It is written to spool.pos.tmp, forced to disk and renamed, so a
+ * crash leaves either the old or the new position.
+ * <p>
+ * Record layout: type (1), src (4), dst (4), ts (8), ASDU length (1), ASDU,
+ * CRC32 (4) of all preceding bytes.
+ *
+ * @author mieslingert
+ */
+public class EventSpool {
+
+    private static final int RECORD_HEADER = 1 + 4 + 4 + 8 + 1;
+    private static final int RECORD_MAX = RECORD_HEADER + EventRingBuffer.MAX_ASDU + 4;
+
+    private File dir;
+    private long segmentSize;
+    private long maxBytes;
+    // segment number -> size in bytes
+    private final TreeMap<Long, Long> segments = new TreeMap<>();
+    private FileChannel writeChannel;
+    private long writeSeg;
+    private long writePos;
+    private FileChannel readChannel;
+    private long readSeg;
+    private long readPos;
+    private long ackSeg;
+    private long ackPos;
+    private long totalBytes = 0;
+    private volatile long unreadBytes = 0;
+    private volatile long spooledBytes = 0;
+    private long dropped = 0;
+    private final ByteBuffer buf = ByteBuffer.allocate(RECORD_MAX);
+    private final CRC32 crc = new CRC32();
+    private final static Logger logger = LoggerFactory.getLogger(EventSpool.class);
+
+    private EventSpool() {
+    }
+
+    /**
+     * @param dir directory for the segment files, created if missing
+     * @param segmentSize size in bytes after which a new segment is started
+     * @param maxBytes events are dropped once the spool holds that many bytes
+     */
+    public EventSpool(String dir, long segmentSize, long maxBytes) throws IOException {
+        this.dir = new File(dir);
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new IOException("unable to create spool directory " + dir);
+        }
+        recover();
+        logger.info("EventSpool in {}, {} bytes pending from previous run", dir, spooledBytes);
+    }
+
+    /**
+     * @return true if all spooled events have been read
+     */
+    public boolean isEmpty() {
+        return unreadBytes == 0;
+    }
+
+    /**
+     * @return bytes on disk that have not been acknowledged yet
+     */
+    public long getSpooledBytes() {
+        return spooledBytes;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public String getDirectory() {
+        return dir.getPath();
+    }
+
+    public synchronized boolean append(KNXEvent kev) throws IOException {
+        byte[] asdu = kev.getAsdu();
+        return append(kev.getEvType().ordinal(), kev.getRawSourceAddr(), kev.getRawDestination(),
+                kev.getTsMicros(), asdu, 0, asdu.length);
+    }
+
+    /**
+     * @return false if the event was dropped because the spool is full
+     */
+    public synchronized boolean append(int evType, int src, int dst, long ts, byte[] asdu, int asduOff, int asduLen) throws IOException {
+        int len = RECORD_HEADER + asduLen + 4;
+        if (totalBytes + len > maxBytes) {
+            if (dropped++ % 1000 == 0) {
+                logger.warn("EventSpool full ({} bytes), dropped {} events so far", totalBytes, dropped);
+            }
+            return false;
+        }
+        if (writePos >= segmentSize) {
+            roll();
+        }
+        buf.clear();
+        buf.put((byte) evType).putInt(src).putInt(dst).putLong(ts).put((byte) asduLen).put(asdu, asduOff, asduLen);
+        crc.reset();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        buf.flip();
+        while (buf.hasRemaining()) {
+            writeChannel.write(buf, writePos + buf.position());
+        }
+        writePos += len;
+        totalBytes += len;
+        segments.put(writeSeg, writePos);
+        unreadBytes += len;
+        spooledBytes += len;
+        return true;
+    }
+
+    /**
+     * Reads up to max events following the last read position.
+     */
+    public synchronized List<KNXEvent> read(int max) throws IOException {
+        List<KNXEvent> events = new ArrayList<>(Math.min(max, 1024));
+        while (events.size() < max && unreadBytes > 0) {
+            long segEnd = segments.get(readSeg);
+            if (readPos >= segEnd) {
+                if (readSeg == writeSeg) {
+                    break;
+                }
+                openRead(segments.higherKey(readSeg));
+                continue;
+            }
+            KNXEvent kev = readRecord(segEnd);
+            if (kev == null) {
+                logger.warn("corrupt record in spool segment {} at offset {}, skipping rest of segment", readSeg, readPos);
+                unreadBytes -= segEnd - readPos;
+                readPos = segEnd;
+                continue;
+            }
+            events.add(kev);
+        }
+        return events;
+    }
+
+    /**
+     * Marks everything read so far as written to the DB, deletes segments
+     * that are no longer needed and persists the position.
+     */
+    public synchronized void ack() throws IOException {
+        ackSeg = readSeg;
+        ackPos = readPos;
+        while (!segments.isEmpty() && segments.firstKey() < ackSeg) {
+            long seg = segments.firstKey();
+            totalBytes -= segments.remove(seg);
+            segmentFile(seg).delete();
+        }
+        if (ackSeg == writeSeg && ackPos == writePos && writePos > 0) {
+            // everything has been replayed, start over with an empty segment
+            long done = ackSeg;
+            roll();
+            openRead(writeSeg);
+            totalBytes -= segments.remove(done);
+            segmentFile(done).delete();
+            ackSeg = readSeg;
+            ackPos = 0;
+        }
+        spooledBytes = totalBytes - ackPos;
+        writePosition();
+    }
+
+    /**
+     * Goes back to the last acknowledged position, used when writing the
+     * events to the DB failed.
+     */
+    public synchronized void rewind() throws IOException {
+        if (readSeg != ackSeg) {
+            openRead(ackSeg);
+        }
+        readPos = ackPos;
+        long unread = 0;
+        for (Long seg : segments.tailMap(ackSeg, true).keySet()) {
+            unread += segments.get(seg);
+        }
+        unreadBytes = unread - ackPos;
+    }
+
+    /**
+     * Forces spooled events to disk.
+     */
+    public synchronized void sync() throws IOException {
+        writeChannel.force(false);
+    }
+
+    private KNXEvent readRecord(long segEnd) throws IOException {
+        if (readPos + RECORD_HEADER + 4 > segEnd) {
+            return null;
+        }
+        buf.clear();
+        buf.limit(RECORD_HEADER);
+        readFully(readChannel, buf, readPos);
+        int asduLen = buf.get(RECORD_HEADER - 1) & 0xff;
+        if (asduLen > EventRingBuffer.MAX_ASDU || readPos + RECORD_HEADER + asduLen + 4 > segEnd) {
+            return null;
+        }
+        buf.limit(RECORD_HEADER + asduLen + 4);
+        readFully(readChannel, buf, readPos);
+        crc.reset();
+        crc.update(buf.array(), 0, RECORD_HEADER + asduLen);
+        if ((int) crc.getValue() != buf.getInt(RECORD_HEADER + asduLen)) {
+            return null;
+        }
+        buf.flip();
+        int evType = buf.get();
+        int src = buf.getInt();
+        int dst = buf.getInt();
+        long ts = buf.getLong();
+        if (evType < 0 || evType >= EventRingBuffer.EVENT_TYPES.length) {
+            return null;
+        }
+        int len = RECORD_HEADER + asduLen + 4;
+        readPos += len;
+        unreadBytes -= len;
+        return new KNXEvent(EventRingBuffer.EVENT_TYPES[evType], src, dst, ts,
+                Arrays.copyOfRange(buf.array(), RECORD_HEADER, RECORD_HEADER + asduLen));
+    }
+
+    private void recover() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.startsWith("spool-") && name.endsWith(".seg"));
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                segments.put(Long.parseLong(name.substring(6, name.length() - 4)), f.length());
+                totalBytes += f.length();
+            }
+        }
+
+        ackSeg = segments.isEmpty() ? 0 : segments.firstKey();
+        ackPos = 0;
+        File posFile = new File(dir, "spool.pos");
+        if (posFile.length() == 16) {
+            FileChannel fc = FileChannel.open(posFile.toPath(), StandardOpenOption.READ);
+            ByteBuffer pos = ByteBuffer.allocate(16);
+            readFully(fc, pos, 0);
+            fc.close();
+            long seg = pos.getLong(0);
+            if (segments.containsKey(seg)) {
+                ackSeg = seg;
+                ackPos = Math.min(pos.getLong(8), segments.get(seg));
+            }
+        }
+        // segments before the acknowledged one are left over from a crash
+        while (!segments.isEmpty() && segments.firstKey() < ackSeg) {
+            long seg = segments.firstKey();
+            totalBytes -= segments.remove(seg);
+            segmentFile(seg).delete();
+        }
+
+        if (segments.isEmpty()) {
+            writeSeg = ackSeg;
+            segments.put(writeSeg, 0L);
+        } else {
+            writeSeg = segments.lastKey();
+        }
+        writeChannel = FileChannel.open(segmentFile(writeSeg).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        writePos = segments.get(writeSeg);
+
+        // a crash may have left a partial record at the end of the last
+        // segment, cut it off
+        openRead(writeSeg);
+        readPos = writeSeg == ackSeg ? ackPos : 0;
+        unreadBytes = Long.MAX_VALUE;
+        while (readPos < writePos && readRecord(writePos) != null) {
+        }
+        if (readPos < writePos) {
+            logger.warn("truncating spool segment {} from {} to {} bytes", writeSeg, writePos, readPos);
+            totalBytes -= writePos - readPos;
+            writePos = readPos;
+            writeChannel.truncate(writePos);
+            segments.put(writeSeg, writePos);
+        }
+
+        openRead(ackSeg);
+        readPos = ackPos;
+        spooledBytes = totalBytes - ackPos;
+        unreadBytes = spooledBytes;
+    }
+
+    private void roll() throws IOException {
+        writeChannel.force(false);
+        if (writeChannel != readChannel) {
+            writeChannel.close();
+        }
+        writeSeg++;
+        writePos = 0;
+        segments.put(writeSeg, 0L);
+        writeChannel = FileChannel.open(segmentFile(writeSeg).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private void openRead(long seg) throws IOException {
+        if (readChannel != null && readChannel != writeChannel) {
+            readChannel.close();
+        }
+        readSeg = seg;
+        readPos = 0;
+        readChannel = seg == writeSeg ? writeChannel : FileChannel.open(segmentFile(seg).toPath(), StandardOpenOption.READ);
+    }
+
+    private void writePosition() throws IOException {
+        ByteBuffer pos = ByteBuffer.allocate(16);
+        pos.putLong(ackSeg).putLong(ackPos).flip();
+        File tmp = new File(dir, "spool.pos.tmp");
+        FileChannel fc = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            while (pos.hasRemaining()) {
+                fc.write(pos, pos.position());
+            }
+            fc.force(true);
+        } finally {
+            fc.close();
+        }
+        Files.move(tmp.toPath(), new File(dir, "spool.pos").toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private File segmentFile(long seg) {
+        return new File(dir, String.format("spool-%016d.seg", seg));
+    }
+
+    /**
+     * Fills the buffer from its position to its limit, pos is the file offset
+     * of buffer position 0.
+     */
+    private static void readFully(FileChannel fc, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) {
+            if (fc.read(b, pos + b.position()) < 0) {
+                throw new IOException("unexpected end of spool segment");
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tuwien.auto.calimero.GroupAddress;
+import tuwien.auto.calimero.KNXFormatException;
+
+/**
+ * Per event trace output, kept out of the hot path. Nothing is formatted
+ * unless the event is actually logged.
+ * <p>
+ * Every event is logged at DEBUG if the EventTrace logger is at DEBUG or
+ * tracing of all events was requested. Otherwise only one in sampleEvery
+ * events and events of the selected group addresses are logged at INFO.
+ *
+ * @author mieslingert
+ */
+public class EventTrace {
+
+    private boolean traceAll;
+    private int sampleEvery;
+    private final boolean[] selected = new boolean[65536];
+    private boolean anySelected = false;
+    private final AtomicLong seen = new AtomicLong();
+    private final static Logger logger = LoggerFactory.getLogger(EventTrace.class);
+
+    private EventTrace() {
+    }
+
+    /**
+     * @param traceAll log every event
+     * @param sampleEvery log one in sampleEvery events, 0 to disable
+     * @param groups comma separated list of group addresses that are always
+     * logged, e.g. "5/0/2,1/2/3"
+     */
+    public EventTrace(boolean traceAll, int sampleEvery, String groups) throws KNXFormatException {
+        this.traceAll = traceAll || logger.isDebugEnabled();
+        this.sampleEvery = sampleEvery;
+        if (groups != null && !groups.isEmpty()) {
+            for (String ga : groups.split(",")) {
+                selected[new GroupAddress(ga.trim()).getRawAddress()] = true;
+                anySelected = true;
+            }
+        }
+    }
+
+    /**
+     * @return true if trace() might log anything at all
+     */
+    public boolean isEnabled() {
+        return traceAll || sampleEvery > 0 || anySelected;
+    }
+
+    public void trace(KNXEvent kev) {
+        if (traceAll) {
+            if (logger.isDebugEnabled()) {
+                log(kev, true);
+            } else {
+                log(kev, false);
+            }
+            return;
+        }
+        if ((anySelected && selected[kev.getRawDestination()])
+                || (sampleEvery > 0 && seen.incrementAndGet() % sampleEvery == 0)) {
+            log(kev, false);
+        }
+    }
+
+    private void log(KNXEvent kev, boolean debug) {
+        GaDescriptor desc = kev.getDescriptor();
+        String msg = "{} {} -> {} ({}): {} [0x{}], DPT: {}";
+        Object[] args = {kev.getEvType(), kev.getSourceAddr(), desc.getAddressString(), desc.getName(),
+            kev.asString(), KNXEvent.toHex(kev.getAsdu(), ""), desc.getDpt()};
+        if (debug) {
+            logger.debug(msg, args);
+        } else {
+            logger.info(msg, args);
+        }
+    }
+}
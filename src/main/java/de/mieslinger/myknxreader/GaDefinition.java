@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+/**
+ * One group address as read from the GA file, before it is registered in
+ * the GaTable. Kept in the GaSnapshot.
+ *
+ * @author mieslingert
+ */
+public class GaDefinition {
+
+    private final int rawAddress;
+    private final String name;
+    private final int mainNumber;
+    private final String dptId;
+    private final RecordingPolicy policy;
+
+    /**
+     * @param dptId e.g. "9.001", null for a GA whose events are ignored
+     */
+    public GaDefinition(int rawAddress, String name, int mainNumber, String dptId, RecordingPolicy policy) {
+        this.rawAddress = rawAddress;
+        this.name = name;
+        this.mainNumber = mainNumber;
+        this.dptId = dptId;
+        this.policy = policy;
+    }
+
+    public int getRawAddress() {
+        return rawAddress;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMainNumber() {
+        return mainNumber;
+    }
+
+    public String getDptId() {
+        return dptId;
+    }
+
+    public RecordingPolicy getPolicy() {
+        return policy;
+    }
+
+    public boolean isIgnored() {
+        return dptId == null;
+    }
+
+    /**
+     * Builds a DPT id like "9.001" without String.format.
+     */
+    static String dptId(int mainNumber, int subNumber) {
+        String sub = Integer.toString(subNumber);
+        return sub.length() >= 3 ? mainNumber + "." + sub : mainNumber + "." + "000".substring(sub.length()) + sub;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import tuwien.auto.calimero.GroupAddress;
+import tuwien.auto.calimero.datapoint.StateDP;
+
+/**
+ * Everything the ingest path needs to know about one group address,
+ * computed once when the datapoint is added.
+ *
+ * @author mieslingert
+ */
+public class GaDescriptor {
+
+    private final StateDP dp;
+    private final GroupAddress address;
+    private final String addressString;
+    private final String name;
+    private final String dpt;
+    private final int mainNumber;
+    private final DptDecoder decoder;
+    private final String dataTable;
+    private final boolean persist;
+    private final RecordingPolicy policy;
+
+    /**
+     * Descriptor for a datapoint that is written to the DB.
+     */
+    public GaDescriptor(StateDP dp, RecordingPolicy policy) {
+        this.dp = dp;
+        this.address = dp.getMainAddress();
+        this.addressString = address.toString();
+        this.name = dp.getName();
+        this.dpt = dp.getDPT();
+        this.mainNumber = dp.getMainNumber();
+        this.decoder = DptDecoder.forDatapoint(mainNumber, dpt);
+        this.dataTable = TableRegistry.dataTableName(address, dpt, mainNumber);
+        this.persist = true;
+        this.policy = policy;
+    }
+
+    /**
+     * Descriptor for a known group address whose events are ignored, e.g.
+     * because its DPT is not supported.
+     */
+    public GaDescriptor(GroupAddress address, String name) {
+        this.dp = null;
+        this.address = address;
+        this.addressString = address.toString();
+        this.name = name;
+        this.dpt = "";
+        this.mainNumber = 0;
+        this.decoder = null;
+        this.dataTable = null;
+        this.persist = false;
+        this.policy = RecordingPolicy.ALL;
+    }
+
+    /**
+     * @return the datapoint or null for ignored group addresses
+     */
+    public StateDP getDatapoint() {
+        return dp;
+    }
+
+    public GroupAddress getAddress() {
+        return address;
+    }
+
+    public int getRawAddress() {
+        return address.getRawAddress();
+    }
+
+    public String getAddressString() {
+        return addressString;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDpt() {
+        return dpt;
+    }
+
+    public int getMainNumber() {
+        return mainNumber;
+    }
+
+    public DptDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * @return name of the data table or null if the DPT is only written to
+     * knx_log
+     */
+    public String getDataTable() {
+        return dataTable;
+    }
+
+    public boolean isFloat() {
+        return decoder != null && decoder.getKind() == DptDecoder.Kind.FLOAT;
+    }
+
+    public boolean isPersist() {
+        return persist;
+    }
+
+    public RecordingPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return true if the definition from the GA file describes this
+     * descriptor, i.e. the GA did not change on a reload
+     */
+    public boolean isDefinedBy(GaDefinition def) {
+        if (def.getRawAddress() != getRawAddress() || !name.equals(def.getName())) {
+            return false;
+        }
+        if (def.isIgnored()) {
+            return !persist;
+        }
+        return persist && mainNumber == def.getMainNumber() && dpt.equals(def.getDptId()) && policy.equals(def.getPolicy());
+    }
+}
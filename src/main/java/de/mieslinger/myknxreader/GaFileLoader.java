@@ -0,0 +1,316 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import com.opencsv.CSVParser;
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tuwien.auto.calimero.GroupAddress;
+import tuwien.auto.calimero.KNXFormatException;
+
+/**
+ * Reads the group addresses from the GA file: a CSV export of the ETS group
+ * addresses or an ETS project (.knxproj).
+ * <p>
+ * The result is cached in a GaSnapshot next to the GA file, as long as the
+ * GA file doesn't change a restart only has to read the snapshot.
+ *
+ * @author mieslingert
+ */
+public class GaFileLoader {
+
+    private final static Logger logger = LoggerFactory.getLogger(GaFileLoader.class);
+
+    private GaFileLoader() {
+    }
+
+    /**
+     * @param snapshotFile null to always parse the GA file
+     */
+    public static List<GaDefinition> load(String gaFile, String charset, File snapshotFile) throws Exception {
+        long start = System.currentTimeMillis();
+        byte[] checksum = checksum(gaFile, charset);
+        if (snapshotFile != null) {
+            try {
+                List<GaDefinition> definitions = GaSnapshot.read(snapshotFile, checksum);
+                if (definitions != null) {
+                    logger.info("loaded {} GAs from snapshot {} in {} ms", definitions.size(), snapshotFile,
+                            System.currentTimeMillis() - start);
+                    return definitions;
+                }
+            } catch (IOException e) {
+                logger.warn("unable to read GA snapshot {}: {}", snapshotFile, e.getMessage());
+            }
+        }
+
+        List<GaDefinition> definitions = gaFile.toLowerCase().endsWith(".knxproj")
+                ? parseProject(gaFile) : parseCsv(gaFile, charset);
+        logger.info("parsed {} GAs from {} in {} ms", definitions.size(), gaFile, System.currentTimeMillis() - start);
+        if (snapshotFile != null) {
+            try {
+                GaSnapshot.write(snapshotFile, checksum, definitions);
+            } catch (IOException e) {
+                logger.warn("unable to write GA snapshot {}: {}", snapshotFile, e.getMessage());
+            }
+        }
+        return definitions;
+    }
+
+    private static byte[] checksum(String gaFile, String charset) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        // the charset changes the parsed names
+        digest.update(charset.getBytes(StandardCharsets.US_ASCII));
+        byte[] buf = new byte[65536];
+        try (InputStream in = new DigestInputStream(new FileInputStream(gaFile), digest)) {
+            while (in.read(buf) >= 0) {
+                // digest only
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Parses the CSV export of the ETS.
+     */
+    static List<GaDefinition> parseCsv(String gaFile, String charset) throws Exception {
+        /* Example content
+         * "EG"; ; ;"1/-/-";"";"";"";"";"Auto"
+         *  ;"Licht"; ;"1/0/-";"";"";"";"";"Auto"
+         *  ; ;"Flur oben - Schalten";"1/0/9";"";"";"Flur Licht Treppe";"DPST-1-1";"Auto"
+         */
+
+        // relevant fields 0,1,2,3,6,7
+        // 0 HG
+        // 1 MG
+        // 2 GA desc1
+        // 3 GA
+        // 6 desc2
+        // 7 dpt
+        // 9-12 recording policy, see RecordingPolicy
+        List<GaDefinition> definitions = new ArrayList<>();
+        String lastHgSeen = "";
+        String lastMgSeen = "";
+        String[] nextLine;
+
+        CSVParser parser = new CSVParserBuilder()
+                .withSeparator(';')
+                .withIgnoreQuotations(false)
+                .build();
+
+        try (CSVReader csvReader = new CSVReaderBuilder(new InputStreamReader(new FileInputStream(gaFile), Charset.forName(charset)))
+                .withSkipLines(0)
+                .withCSVParser(parser)
+                .build()) {
+            while ((nextLine = csvReader.readNext()) != null) {
+
+                int numElements = nextLine.length;
+
+                if (numElements > 0 && nextLine[0].length() > 1) {
+                    lastHgSeen = nextLine[0];
+                }
+                if (numElements > 1 && nextLine[1].length() > 1) {
+                    lastMgSeen = nextLine[1];
+                }
+                if (numElements > 7 && nextLine[7].length() > 1) {
+                    String name = lastHgSeen + "-" + lastMgSeen + "-" + nextLine[2] + "-" + nextLine[6];
+                    GaDefinition def = define(nextLine[3], name, nextLine[7],
+                            numElements > 9 ? Arrays.copyOfRange(nextLine, 9, numElements) : null);
+                    if (def != null) {
+                        definitions.add(def);
+                        logger.debug("added DP: {} {}", nextLine[3], name);
+                    }
+                }
+            }
+        }
+        return definitions;
+    }
+
+    /**
+     * Turns a GA with its DPST-1-1 or DPT-1 into a definition.
+     *
+     * @return null if the GA is invalid and can't even be ignored, e.g. the
+     * header line
+     */
+    private static GaDefinition define(String ga, String name, String dpst, String[] policyColumns) throws KNXFormatException {
+        String[] parts = dpst.split("-");
+        int mainNumber;
+        String dptId;
+        switch (parts[0]) {
+            case "DPT":
+                // FIXME: Hack: just use first subtype to get things going
+                mainNumber = Integer.parseInt(parts[1]);
+                dptId = GaDefinition.dptId(mainNumber, 1);
+                logger.warn("applying default subtype for ga: {} desc: {} dpst: {}", ga, name, dpst);
+                break;
+            case "DPST":
+                mainNumber = Integer.parseInt(parts[1]);
+                dptId = GaDefinition.dptId(mainNumber, Integer.parseInt(parts[2]));
+                break;
+            default:
+                logger.warn("ignoring ga: {} desc: {} dpst: {}", ga, name, dpst);
+                try {
+                    // known GA, drop its events without warning
+                    return new GaDefinition(new GroupAddress(ga).getRawAddress(), name, 0, null, null);
+                } catch (KNXFormatException e) {
+                    return null;
+                }
+        }
+        int raw = new GroupAddress(ga).getRawAddress();
+        RecordingPolicy policy;
+        try {
+            policy = RecordingPolicy.parse(mainNumber, policyColumns);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("ga " + ga + ": " + e.getMessage(), e);
+        }
+        return new GaDefinition(raw, name, mainNumber, dptId, policy);
+    }
+
+    /**
+     * Streams the group addresses out of an ETS project export. The project
+     * is a zip with the project data in P-xxxx/0.xml, or in a zip P-xxxx.zip
+     * inside of it. Password protected projects can't be read.
+     */
+    static List<GaDefinition> parseProject(String projectFile) throws Exception {
+        List<GaDefinition> definitions = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(new FileInputStream(projectFile), 65536))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (name.matches("P-[^/]+/0\\.xml")) {
+                    parseProjectXml(zip, definitions);
+                } else if (name.matches("P-[^/]+\\.zip")) {
+                    ZipInputStream inner = new ZipInputStream(zip);
+                    ZipEntry innerEntry;
+                    try {
+                        while ((innerEntry = inner.getNextEntry()) != null) {
+                            if (innerEntry.getName().equals("0.xml")) {
+                                parseProjectXml(inner, definitions);
+                            }
+                        }
+                    } catch (ZipException e) {
+                        throw new IOException("unable to read " + name + " of " + projectFile
+                                + ", password protected projects are not supported: " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+        if (definitions.isEmpty()) {
+            logger.warn("no group addresses found in {}", projectFile);
+        }
+        return definitions;
+    }
+
+    private static void parseProjectXml(InputStream zipEntry, List<GaDefinition> definitions) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        // the parser must not close the zip stream
+        XMLStreamReader xml = factory.createXMLStreamReader(new FilterInputStream(zipEntry) {
+            @Override
+            public void close() {
+            }
+        });
+        Deque<String> ranges = new ArrayDeque<>();
+        try {
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (xml.getLocalName()) {
+                        case "GroupRange":
+                            ranges.addLast(attribute(xml, "Name"));
+                            break;
+                        case "GroupAddress":
+                            GaDefinition def = defineProjectGa(xml, ranges);
+                            if (def != null) {
+                                definitions.add(def);
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "GroupRange".equals(xml.getLocalName())) {
+                    ranges.pollLast();
+                }
+            }
+        } finally {
+            xml.close();
+        }
+    }
+
+    private static GaDefinition defineProjectGa(XMLStreamReader xml, Deque<String> ranges) {
+        String address = attribute(xml, "Address");
+        StringBuilder name = new StringBuilder();
+        for (String range : ranges) {
+            name.append(range).append('-');
+        }
+        name.append(attribute(xml, "Name")).append('-').append(attribute(xml, "Description"));
+        try {
+            // ETS 5 and later store the raw address
+            int raw = address.contains("/") ? new GroupAddress(address).getRawAddress() : Integer.parseInt(address) & 0xffff;
+            // e.g. "DPST-9-1" or "DPST-1-1 DPST-1-8" for a GA used with several types
+            String types = attribute(xml, "DatapointType").trim();
+            String dpst = types.isEmpty() ? "" : types.split("\\s+")[0];
+            String ga = new GroupAddress(raw).toString();
+            GaDefinition def = define(ga, name.toString(), dpst, null);
+            if (def != null) {
+                logger.debug("added DP: {} {}", ga, name);
+            }
+            return def;
+        } catch (KNXFormatException | RuntimeException e) {
+            logger.warn("ignoring invalid group address {} {}: {}", address, name, e.getMessage());
+            return null;
+        }
+    }
+
+    private static String attribute(XMLStreamReader xml, String name) {
+        String value = xml.getAttributeValue(null, name);
+        return value != null ? value : "";
+    }
+}
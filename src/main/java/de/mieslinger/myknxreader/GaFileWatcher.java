@@ -0,0 +1,179 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.io.File;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the GA file and reloads it when it changes, without restarting
+ * the JVM.
+ * <p>
+ * The new model is built in a separate GaTable while the old one stays in
+ * use. The tables of new numeric datapoints are provisioned on its own
+ * connection, then the new model is swapped in atomically. Descriptors of
+ * unchanged GAs are taken over, so per GA state (GA ids, recording filter)
+ * stays valid. If the GA file can't be parsed the old model is kept.
+ *
+ * @author mieslingert
+ */
+public class GaFileWatcher implements Runnable {
+
+    // editors and the ETS write files in several steps
+    private static final long QUIET_MILLIS = 2000;
+    private static final int MAX_LISTED = 50;
+    private String gaFile;
+    private String charset;
+    private File snapshot;
+    private GaTable gaTable;
+    private TableRegistry tables;
+    private String jdbcUrl;
+    private String user;
+    private String password;
+    private final static Logger logger = LoggerFactory.getLogger(GaFileWatcher.class);
+
+    private GaFileWatcher() {
+    }
+
+    public GaFileWatcher(String gaFile, String charset, File snapshot, GaTable gaTable, TableRegistry tables,
+            String jdbcUrl, String user, String password) {
+        this.gaFile = gaFile;
+        this.charset = charset;
+        this.snapshot = snapshot;
+        this.gaTable = gaTable;
+        this.tables = tables;
+        this.jdbcUrl = jdbcUrl;
+        this.user = user;
+        this.password = password;
+    }
+
+    @Override
+    public void run() {
+        Path file = new File(gaFile).getAbsoluteFile().toPath();
+        Path dir = file.getParent();
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            logger.info("watching {} for changes", file);
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watcher.take();
+                boolean changed = pollChanged(key, file);
+                // wait until the file has been quiet for a while
+                while (true) {
+                    key = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    changed |= pollChanged(key, file);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("watching {} failed, GA file changes need a restart: {}", file, e.getMessage());
+        }
+    }
+
+    private static boolean pollChanged(WatchKey key, Path file) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Loads the GA file, provisions the tables of the new model and swaps it
+     * in.
+     */
+    public void reload() {
+        long start = System.currentTimeMillis();
+        GaTable next = new GaTable();
+        try {
+            next.registerAll(GaFileLoader.load(gaFile, charset, snapshot), gaTable);
+        } catch (Exception e) {
+            logger.warn("unable to reload {}, keeping the current {} GAs: {}", gaFile, gaTable.size(), e.getMessage());
+            return;
+        }
+
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        for (GaDescriptor desc : next.getDescriptors()) {
+            GaDescriptor old = gaTable.get(desc.getRawAddress());
+            if (old == null) {
+                added.add(desc.getAddressString());
+            } else if (old != desc) {
+                changed.add(desc.getAddressString());
+            }
+        }
+        for (GaDescriptor desc : gaTable.getDescriptors()) {
+            if (next.get(desc.getRawAddress()) == null) {
+                removed.add(desc.getAddressString());
+            }
+        }
+        if (added.isEmpty() && removed.isEmpty() && changed.isEmpty()) {
+            logger.info("{} changed, but no group address did", gaFile);
+            return;
+        }
+
+        if (!added.isEmpty() || !changed.isEmpty()) {
+            try (Connection conn = DbWriter.connect(jdbcUrl, user, password)) {
+                tables.provision(conn, next.getDescriptors());
+            } catch (Exception e) {
+                // the DbWriters create missing tables on the fly
+                logger.warn("unable to provision tables for the reloaded GAs: {}", e.getMessage());
+            }
+        }
+
+        gaTable.replaceWith(next);
+        logger.info("reloaded {} in {} ms, {} GAs: {} added {}, {} removed {}, {} changed {}", gaFile,
+                System.currentTimeMillis() - start, next.size(), added.size(), list(added),
+                removed.size(), list(removed), changed.size(), list(changed));
+    }
+
+    private static String list(List<String> addresses) {
+        if (addresses.size() <= MAX_LISTED) {
+            return addresses.toString();
+        }
+        return addresses.subList(0, MAX_LISTED).toString() + "...";
+    }
+}
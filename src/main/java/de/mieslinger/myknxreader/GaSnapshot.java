@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary snapshot of the parsed GA file, loaded instead of parsing the GA
+ * file again as long as the checksum of the GA file matches.
+ * <pre>
+ * "KNXGAS02", SHA-256 of the GA file (32), number of GAs (4)
+ * per GA: address (2), ignored (1), name (UTF)
+ *         unless ignored: main number (2), DPT id (UTF), policy mode (1),
+ *         abs deadband (8), rel deadband (8), min interval (8),
+ *         heartbeat (8)
+ * </pre>
+ *
+ * @author mieslingert
+ */
+public class GaSnapshot {
+
+    // 02: recording policies default to all, older snapshots hold the old defaults
+    private static final byte[] MAGIC = "KNXGAS02".getBytes(StandardCharsets.US_ASCII);
+    private static final RecordingPolicy.Mode[] MODES = RecordingPolicy.Mode.values();
+
+    private GaSnapshot() {
+    }
+
+    /**
+     * @return the definitions, null if there is no snapshot or it was
+     * taken from a GA file with another checksum
+     */
+    public static List<GaDefinition> read(File file, byte[] checksum) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                return null;
+            }
+            byte[] stored = new byte[checksum.length];
+            in.readFully(stored);
+            if (!Arrays.equals(stored, checksum)) {
+                return null;
+            }
+            int n = in.readInt();
+            List<GaDefinition> definitions = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int raw = in.readUnsignedShort();
+                boolean ignored = in.readBoolean();
+                String name = in.readUTF();
+                if (ignored) {
+                    definitions.add(new GaDefinition(raw, name, 0, null, null));
+                    continue;
+                }
+                int mainNumber = in.readUnsignedShort();
+                String dptId = in.readUTF();
+                RecordingPolicy policy = new RecordingPolicy(MODES[in.readUnsignedByte()],
+                        in.readDouble(), in.readDouble(), in.readLong(), in.readLong());
+                definitions.add(new GaDefinition(raw, name, mainNumber, dptId, policy));
+            }
+            return definitions;
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file first and renames it, so a
+     * crash never leaves a partial snapshot behind.
+     */
+    public static void write(File file, byte[] checksum, List<GaDefinition> definitions) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536))) {
+            out.write(MAGIC);
+            out.write(checksum);
+            out.writeInt(definitions.size());
+            for (GaDefinition def : definitions) {
+                out.writeShort(def.getRawAddress());
+                out.writeBoolean(def.isIgnored());
+                out.writeUTF(def.getName());
+                if (def.isIgnored()) {
+                    continue;
+                }
+                RecordingPolicy policy = def.getPolicy();
+                out.writeShort(def.getMainNumber());
+                out.writeUTF(def.getDptId());
+                out.writeByte(policy.getMode().ordinal());
+                out.writeDouble(policy.getAbsDeadband());
+                out.writeDouble(policy.getRelDeadband());
+                out.writeLong(policy.getMinIntervalMillis());
+                out.writeLong(policy.getHeartbeatMillis());
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
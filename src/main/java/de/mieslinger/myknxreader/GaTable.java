@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import tuwien.auto.calimero.GroupAddress;
+import tuwien.auto.calimero.datapoint.StateDP;
+
+/**
+ * The GaDescriptor of every group address, indexed by the raw 16 bit
+ * address, so the ingest path needs one array load per event.
+ * <p>
+ * The table is filled at startup before the GroupMonitor and DbWriter are
+ * started. A reload of the GA file builds a new GaTable and swaps its model
+ * in with replaceWith(), a single volatile write, so readers never block
+ * and always see either the old or the new model completely.
+ *
+ * @author mieslingert
+ */
+public class GaTable {
+
+    private static class Model {
+
+        private final GaDescriptor[] descriptors = new GaDescriptor[65536];
+        private final List<GaDescriptor> registered = new ArrayList<>();
+    }
+
+    private volatile Model model = new Model();
+
+    public GaTable() {
+    }
+
+    public GaDescriptor register(StateDP dp) {
+        return register(dp, RecordingPolicy.ALL);
+    }
+
+    public GaDescriptor register(StateDP dp, RecordingPolicy policy) {
+        return put(new GaDescriptor(dp, policy));
+    }
+
+    /**
+     * Registers the group addresses read by the GaFileLoader.
+     */
+    public void registerAll(List<GaDefinition> definitions) {
+        registerAll(definitions, null);
+    }
+
+    /**
+     * Registers the group addresses read by the GaFileLoader, the
+     * descriptors of unchanged group addresses are taken over from previous.
+     */
+    public void registerAll(List<GaDefinition> definitions, GaTable previous) {
+        for (GaDefinition def : definitions) {
+            GaDescriptor old = previous != null ? previous.get(def.getRawAddress()) : null;
+            if (old != null && old.isDefinedBy(def)) {
+                put(old);
+                continue;
+            }
+            GroupAddress ga = new GroupAddress(def.getRawAddress());
+            if (def.isIgnored()) {
+                ignore(ga, def.getName());
+            } else {
+                register(new StateDP(ga, def.getName(), def.getMainNumber(), def.getDptId()), def.getPolicy());
+            }
+        }
+    }
+
+    /**
+     * Registers a known group address whose events are dropped silently.
+     */
+    public GaDescriptor ignore(GroupAddress ga, String name) {
+        return put(new GaDescriptor(ga, name));
+    }
+
+    /**
+     * Only used while the table is built, not thread safe.
+     */
+    private GaDescriptor put(GaDescriptor desc) {
+        Model m = model;
+        GaDescriptor old = m.descriptors[desc.getRawAddress()];
+        if (old != null) {
+            m.registered.remove(old);
+        }
+        m.descriptors[desc.getRawAddress()] = desc;
+        m.registered.add(desc);
+        return desc;
+    }
+
+    /**
+     * Atomically replaces the content of this table with the content of
+     * next, which must not be changed afterwards.
+     */
+    public void replaceWith(GaTable next) {
+        model = next.model;
+    }
+
+    /**
+     * @return the descriptor or null if the group address is unknown
+     */
+    public GaDescriptor get(int rawGa) {
+        return model.descriptors[rawGa & 0xffff];
+    }
+
+    /**
+     * @return all registered descriptors, including ignored ones
+     */
+    public List<GaDescriptor> getDescriptors() {
+        return Collections.unmodifiableList(model.registered);
+    }
+
+    public int size() {
+        return model.registered.size();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Event counters and link state of one KNX gateway.
+ *
+ * @author mieslingert
+ */
+public class GatewayStats {
+
+    private String name;
+    private volatile boolean linkOpen = false;
+    private volatile long linkChangedAt = System.currentTimeMillis();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong linkLosses = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong downtime = new AtomicLong();
+    private long lastReceived = 0;
+    private long lastReport = System.currentTimeMillis();
+
+    private GatewayStats() {
+    }
+
+    public GatewayStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isLinkOpen() {
+        return linkOpen;
+    }
+
+    /**
+     * Records a link state change. Reopening a link that was lost counts as a
+     * reconnect and adds the outage to the downtime.
+     */
+    public synchronized void setLinkOpen(boolean linkOpen) {
+        long now = System.currentTimeMillis();
+        if (this.linkOpen && !linkOpen) {
+            linkLosses.incrementAndGet();
+        } else if (!this.linkOpen && linkOpen && linkLosses.get() > 0) {
+            reconnects.incrementAndGet();
+            downtime.addAndGet(now - linkChangedAt);
+        }
+        this.linkOpen = linkOpen;
+        this.linkChangedAt = now;
+    }
+
+    /**
+     * @return time of the last link state change in ms since the epoch
+     */
+    public long getLinkChangedAt() {
+        return linkChangedAt;
+    }
+
+    public void received() {
+        received.incrementAndGet();
+    }
+
+    public void duplicate() {
+        duplicates.incrementAndGet();
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    public long getLinkLosses() {
+        return linkLosses.get();
+    }
+
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    /**
+     * @return ms the link was down after a loss, including a current outage
+     */
+    public synchronized long getDowntime() {
+        long d = downtime.get();
+        if (!linkOpen && linkLosses.get() > 0) {
+            d += System.currentTimeMillis() - linkChangedAt;
+        }
+        return d;
+    }
+
+    /**
+     * @return events per second since the previous call
+     */
+    public synchronized double rate() {
+        long now = System.currentTimeMillis();
+        long r = received.get();
+        double rate = now > lastReport ? (r - lastReceived) * 1000.0 / (now - lastReport) : 0;
+        lastReceived = r;
+        lastReport = now;
+        return rate;
+    }
+}
@@ -1,16 +1,16 @@
 package de.mieslinger.myknxreader;
 
 import java.net.InetSocketAddress;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import tuwien.auto.calimero.CloseEvent;
 import tuwien.auto.calimero.DetachEvent;
+import tuwien.auto.calimero.FrameEvent;
 import tuwien.auto.calimero.KNXException;
-import tuwien.auto.calimero.datapoint.Datapoint;
-import tuwien.auto.calimero.datapoint.DatapointModel;
-import tuwien.auto.calimero.datapoint.StateDP;
 import tuwien.auto.calimero.link.KNXNetworkLink;
 import tuwien.auto.calimero.link.KNXNetworkLinkIP;
+import tuwien.auto.calimero.link.NetworkLinkListener;
 import tuwien.auto.calimero.link.medium.TPSettings;
 import tuwien.auto.calimero.process.ProcessCommunicator;
 import tuwien.auto.calimero.process.ProcessCommunicatorImpl;
@@ -39,8 +39,9 @@ import tuwien.auto.calimero.process.ProcessListener;
  * System.out, as well as any data part of the application service data unit
  * (ASDU) in hexadecimal format.
  * <p>
- * Note that this example does not exit, i.e., it monitors forever or until the
- * KNX network link connection got closed. Hence, with KNX servers that have a
+ * The monitor does not exit: when the KNX network link connection gets closed
+ * it is reopened in-process with a jittered exponential backoff, while the
+ * DbWriter keeps draining what was received. With KNX servers that have a
  * limit on active tunneling connections (usually 1 or 4), if the group monitor
  * in connected state is terminated by the client (you), the pending state of
  * the open tunnel on the KNX server might temporarily cause an error on
@@ -54,47 +55,146 @@ public class GroupMonitor implements ProcessListener, Runnable {
      * Address of your KNXnet/IP server. Replace the host or IP address as
      * necessary.
      */
-    private ConcurrentLinkedQueue<KNXEvent> queue;
-    private DatapointModel<StateDP> datapoints;
+    private EventMerger merger;
+    private int gateway;
+    private GatewayStats stats;
+    private GaTable gaTable;
     private final static Logger logger = LoggerFactory.getLogger(GroupMonitor.class);
     private KNXNetworkLink knxLink;
     private ProcessCommunicator pc;
     private InetSocketAddress remote;
+    private final Object lock = new Object();
+    private boolean closed = false;
+    private String closeReason;
+    private static final long MIN_RECONNECT_DELAY = 1000;
+    private static final long MAX_RECONNECT_DELAY = 60000;
+    // a link that stayed up this long resets the backoff
+    private static final long STABLE_LINK = 60000;
 
     private GroupMonitor() {
 
     }
 
-    public GroupMonitor(String remoteHost, ConcurrentLinkedQueue<KNXEvent> queue, DatapointModel<StateDP> datapoints) {
-        this.queue = queue;
-        this.datapoints = datapoints;
-        remote = new InetSocketAddress(remoteHost, 3671);
+    /**
+     * @param remoteHost host or host:port of the gateway
+     * @param gateway index of the gateway in the EventMerger
+     */
+    public GroupMonitor(String remoteHost, EventMerger merger, int gateway, GaTable gaTable) {
+        this.merger = merger;
+        this.gateway = gateway;
+        this.stats = merger.getGateways()[gateway];
+        this.gaTable = gaTable;
+        int colon = remoteHost.lastIndexOf(':');
+        if (colon > 0) {
+            remote = new InetSocketAddress(remoteHost.substring(0, colon), Integer.parseInt(remoteHost.substring(colon + 1)));
+        } else {
+            remote = new InetSocketAddress(remoteHost, 3671);
+        }
         logger.info("GroupMonitor for " + remoteHost + " instantiated");
     }
 
     public void run() {
 
         logger.info("GroupMonitor begin run()");
+        long delay = MIN_RECONNECT_DELAY;
         while (true) {
             try {
+                connect();
+                long openedAt = System.currentTimeMillis();
+                awaitClose();
+                logger.warn("knxLink to {} closed: {}", remote, closeReason);
+                if (System.currentTimeMillis() - openedAt >= STABLE_LINK) {
+                    delay = MIN_RECONNECT_DELAY;
+                }
+            } catch (final KNXException | RuntimeException e) {
+                logger.warn("unable to open knxLink to {}: {}", remote, e.getMessage());
+            } catch (final InterruptedException e) {
+                logger.info("GroupMonitor for {} interrupted, stopping", remote);
+                disconnect();
+                return;
+            }
+            disconnect();
+            // wait between half and the full backoff so several gateways
+            // or restarted loggers do not hit the server in lockstep
+            long wait = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+            logger.info("reconnecting to {} in {} ms", remote, wait);
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                logger.info("GroupMonitor for {} interrupted, stopping", remote);
+                return;
+            }
+            delay = Math.min(delay * 2, MAX_RECONNECT_DELAY);
+        }
+    }
 
-                knxLink = KNXNetworkLinkIP.newTunnelingLink(null, remote, false, TPSettings.TP1);
-                pc = new ProcessCommunicatorImpl(knxLink);
-                pc.addProcessListener(this);
+    private void connect() throws KNXException, InterruptedException {
+        synchronized (lock) {
+            closed = false;
+            closeReason = null;
+        }
+        knxLink = KNXNetworkLinkIP.newTunnelingLink(null, remote, false, TPSettings.TP1);
+        knxLink.addLinkListener(new NetworkLinkListener() {
+            @Override
+            public void indication(final FrameEvent e) {
+            }
 
-                while (knxLink.isOpen()) {
-                    Thread.sleep(1000);
-                }
+            @Override
+            public void linkClosed(final CloseEvent e) {
+                signalClosed(e.getReason());
+            }
+        });
+        pc = new ProcessCommunicatorImpl(knxLink);
+        pc.addProcessListener(this);
+        if (stats.getLinkLosses() > 0) {
+            logger.info("knxLink to {} reopened after {} s down", remote,
+                    (System.currentTimeMillis() - stats.getLinkChangedAt()) / 1000);
+        }
+        stats.setLinkOpen(true);
+    }
+
+    /**
+     * Blocks until linkClosed() or detached() reports the end of the link.
+     * The timeout only guards against a missed event.
+     */
+    private void awaitClose() throws InterruptedException {
+        synchronized (lock) {
+            while (!closed && knxLink.isOpen()) {
+                lock.wait(60000);
+            }
+            if (closeReason == null) {
+                closeReason = "link not open anymore";
+            }
+        }
+    }
+
+    private void signalClosed(String reason) {
+        synchronized (lock) {
+            if (!closed) {
+                closed = true;
+                closeReason = reason;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    private void disconnect() {
+        if (stats.isLinkOpen()) {
+            stats.setLinkOpen(false);
+        }
+        try {
+            if (pc != null) {
+                pc.removeProcessListener(this);
+                pc.close();
+            }
+            if (knxLink != null) {
                 knxLink.close();
-                logger.warn("knxLink not open anymore, exiting");
-                System.exit(0);
-            } catch (final KNXException | InterruptedException | RuntimeException e) {
-                logger.warn("KNX Monitor Exception: ", e);
-                System.exit(0);
             }
-            logger.warn("restarting GroupMonitor by System.exit(0)");
-            System.exit(0);
+        } catch (RuntimeException e) {
+            logger.warn("closing knxLink to {} failed: {}", remote, e.getMessage());
         }
+        pc = null;
+        knxLink = null;
     }
 
     @Override
@@ -114,19 +214,21 @@ public class GroupMonitor implements ProcessListener, Runnable {
 
     @Override
     public void detached(final DetachEvent e) {
-        logger.warn("detached event, exiting");
-        System.exit(0);
+        signalClosed("process communicator detached");
     }
 
     // Called on every group notification issued by a datapoint on the KNX network. It prints the service primitive,
     // KNX source and destination address, and Application Service Data Unit (ASDU) to System.out.
     private void trace(final KNXEventEnum evType, final ProcessEvent e) {
         try {
-            Datapoint dp = datapoints.get(e.getDestination());
-            if (dp != null) {
-                queue.add(new KNXEvent(evType, e, datapoints));
+            int dst = e.getDestination().getRawAddress();
+            GaDescriptor desc = gaTable.get(dst);
+            if (desc != null) {
+                if (desc.isPersist()) {
+                    merger.offer(gateway, evType, e.getSourceAddr().getRawAddress(), dst, e.getASDU());
+                }
             } else {
-                logger.warn("Message from {} to {} missing in datapoint map, ignoring", e.getSourceAddr(), e.getDestination());
+                merger.unknownGa(e.getSourceAddr().getRawAddress(), dst, e.getASDU());
             }
         } catch (final Exception ex) {
             logger.warn("KNX Monitor: ", ex);
@@ -23,34 +23,14 @@
  */
 package de.mieslinger.myknxreader;
 
-import java.math.BigDecimal;
 import java.sql.Timestamp;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.time.ZoneOffset;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import tuwien.auto.calimero.GroupAddress;
+import tuwien.auto.calimero.IndividualAddress;
 import tuwien.auto.calimero.KNXException;
 import tuwien.auto.calimero.KNXFormatException;
-import tuwien.auto.calimero.datapoint.Datapoint;
-import tuwien.auto.calimero.datapoint.DatapointModel;
-import tuwien.auto.calimero.datapoint.StateDP;
-import tuwien.auto.calimero.dptxlator.DPTXlator;
-import tuwien.auto.calimero.dptxlator.DPTXlator2ByteFloat;
-import tuwien.auto.calimero.dptxlator.DPTXlator2ByteUnsigned;
-import tuwien.auto.calimero.dptxlator.DPTXlator3BitControlled;
-import tuwien.auto.calimero.dptxlator.DPTXlator4ByteFloat;
-import tuwien.auto.calimero.dptxlator.DPTXlator4ByteSigned;
-import tuwien.auto.calimero.dptxlator.DPTXlator4ByteUnsigned;
-import tuwien.auto.calimero.dptxlator.DPTXlator8BitUnsigned;
-import tuwien.auto.calimero.dptxlator.DPTXlatorBoolean;
-import tuwien.auto.calimero.dptxlator.DPTXlatorDate;
-import tuwien.auto.calimero.dptxlator.DPTXlatorSceneNumber;
-import tuwien.auto.calimero.dptxlator.DPTXlatorString;
-import tuwien.auto.calimero.dptxlator.DPTXlatorTime;
-import tuwien.auto.calimero.dptxlator.TranslatorTypes;
-import tuwien.auto.calimero.process.ProcessEvent;
 
 /**
  *
@@ -59,176 +39,120 @@ import tuwien.auto.calimero.process.ProcessEvent;
 public class KNXEvent {
 
     private KNXEventEnum evType;
-    private ProcessEvent ev;
+    private int rawSrc;
+    private IndividualAddress src;
     private LocalDateTime ts;
-    private GroupAddress d;
-    private Datapoint dp;
+    private long tsMicros;
+    private Timestamp sqlTs;
+    private int rawDst;
     private byte[] asdu;
-    private DatapointModel<StateDP> datapoints;
-    private boolean isBoolean = false;
-    private boolean isInteger = false;
-    private boolean isFloat = false;
-    private boolean isString = false;
-    private boolean returnBoolean;
-    private Integer returnInteger;
-    private Double returnFloat;
+    private GaDescriptor desc;
+    private DptDecoder decoder;
+    private long longValue;
+    private double doubleValue;
     private String returnString;
-    private static final Logger logger = LoggerFactory.getLogger(KNXEvent.class);
+    private boolean recorded = true;
 
     private KNXEvent() {
     }
 
-    public KNXEvent(KNXEventEnum evType, ProcessEvent e, DatapointModel<StateDP> datapoints) throws KNXException {
+    public KNXEvent(KNXEventEnum evType, int src, int dst, long tsMicros, byte[] asdu) {
         this.evType = evType;
-        this.ev = e;
-        this.ts = LocalDateTime.now();
-        this.d = e.getDestination();
-        this.asdu = e.getASDU();
-
-        this.datapoints = datapoints;
-        // TODO: add checking for NULL
-        this.dp = datapoints.get(e.getDestination());
-
-        /*    
-     * 1.yyy = boolesch, wie Schalten, Bewegen nach oben/unten, Schritt
-     * 2.yyy = 2 x boolesch, z. B. Schalten + Prioritätssteuerung
-     * 3.yyy = boolesch + vorzeichenloser 3-Bit-Wert, z. B. Auf-/Abdimmen
-     * 4.yyy = Zeichen (8-Bit)
-     * 5.yyy = vorzeichenloser 8-Bit-Wert, wie Dimm-Wert (0..100 %), Jalousienposition (0..100 %)
-     * 6.yyy = 8-Bit-2-Komplement, z. B. %
-     * 7.yyy = 2 x vorzeichenloser 8-Bit-Wert, z. B. Impulszähler
-     * 8.yyy = 2 x 8-Bit-2-Komplement, z. B. %
-     * 9.yyy = 16-Bit-Gleitkommazahl, z. B. Temperatur
-     * 10.yyy = Uhrzeit
-     * 11.yyy = Datum
-     * 12.yyy = 4 x vorzeichenloser 8-Bit-Wert,z. B. Impulszähler
-     * 13.yyy = 4 x 8-Bit-2-Komplement, z. B. Impulszähler
-     * 14.yyy = 32-Bit-Gleitkommazahl, z. B. Temperatur
-     * 15.yyy = Zugangskontrolle
-     * 16.yyy = String -> 14 Zeichen (14 x 8-Bit)
-     * 17.yyy = Szenennummer
-     * 18.yyy = Szenensteuerung
-     * 19.yyy = Uhrzeit + Datum
-     * 20.yyy = 8-Bit-Nummerierung,z. B. HLK-Modus („Automatik“, „Komfort“, „Stand-by“, „Sparen“, „Schutz“)
-         */
-        GroupAddress dAddr = ev.getDestination();
-        String val = toHex(asdu, "");
-        String desc = datapoints.get(dAddr).getName();
-        logger.warn("DPT: {} before conversion: {} -> {} ({}): [0x{}]", dp.getDPT(), e.getSourceAddr(), dAddr, desc, val);
-        DPTXlator t = TranslatorTypes.createTranslator(0, dp.getDPT());
-        switch (dp.getMainNumber()) {
-            case 1:
-                DPTXlatorBoolean dxb = new DPTXlatorBoolean(dp.getDPT());
-                dxb.setData(asdu);
-                returnString = String.join(" ", dxb.getAllValues());
-                returnBoolean = dxb.getValueBoolean();
-                isBoolean = true;
-                logger.warn("DPT: {} after conversion: {} -> {} ({}): {} {}", dp.getDPT(), e.getSourceAddr(), dAddr, desc, returnBoolean, returnString);
-                break;
-            case 3:
-                DPTXlator3BitControlled dx3b = new DPTXlator3BitControlled(dp.getDPT());
-                dx3b.setData(asdu);
-                returnString = String.join(" ", dx3b.getAllValues());
-                isString = true;
-                logger.warn("DPT: {} after conversion: {} -> {} ({}): {} {} {} {}",
-                        dp.getDPT(), e.getSourceAddr(), dAddr, desc, returnString, dx3b.getControlBit(), dx3b.getStepCode(), dx3b.getIntervals());
-                break;
-            case 5:
-                DPTXlator8BitUnsigned dx8u = new DPTXlator8BitUnsigned(dp.getDPT());
-                dx8u.setData(asdu);
-                Short s = dx8u.getValueUnsigned();
-                returnString = String.join(" ", dx8u.getAllValues());
-                returnInteger = s.intValue();
-                isInteger = true;
-                logger.warn("DPT: {} after conversion: {} -> {} ({}): {} {}", dp.getDPT(), e.getSourceAddr(), dAddr, desc, returnInteger.toString(), returnString);
-                break;
-            case 7:
-                DPTXlator2ByteUnsigned dx2bu = new DPTXlator2ByteUnsigned(dp.getDPT());
-                dx2bu.setData(asdu);
-                returnString = String.join(" ", dx2bu.getAllValues());
-                returnInteger = dx2bu.getValueUnsigned();
-                isInteger = true;
-                logger.warn("DPT: {} after conversion: {} -> {} ({}): {} {}", dp.getDPT(), e.getSourceAddr(), dAddr, desc, returnInteger.toString(), returnString);
-                break;
-            case 9:
-                DPTXlator2ByteFloat dx2bf = new DPTXlator2ByteFloat(dp.getDPT());
-                dx2bf.setData(asdu);
-                returnString = String.join(" ", dx2bf.getAllValues());
-                returnFloat = dx2bf.getNumericValue();
-                isFloat = true;
-                logger.warn("DPT: {} after conversion: {} -> {} ({}): {} {}", dp.getDPT(), e.getSourceAddr(), dAddr, desc, returnFloat.toString(), returnString);
-                break;
-            case 10:
-                DPTXlatorTime dxt = new DPTXlatorTime();
-                dxt.setData(asdu);
-                returnString = "" + dxt.getHour() + ":" + dxt.getMinute() + ":" + dxt.getSecond();
-                isString = true;
-                logger.warn("DPT: {} after conversion: {} -> {} ({}): {}", dp.getDPT(), e.getSourceAddr(), dAddr, desc, returnString);
-                break;
-            case 11:
-                DPTXlatorDate dxd = new DPTXlatorDate();
-                dxd.setData(asdu);
-                returnString = "" + dxd.getYear() + "-" + dxd.getMonth() + "-" + dxd.getDay();
-                isString = true;
-                logger.warn("DPT: {} after conversion: {} -> {} ({}): {}", dp.getDPT(), e.getSourceAddr(), dAddr, desc, returnString);
-                break;
-            case 12:
-                DPTXlator4ByteUnsigned dx4bu = new DPTXlator4ByteUnsigned(dp.getDPT());
-                dx4bu.setData(asdu);
-                BigDecimal bdu = new BigDecimal(dx4bu.getValueUnsigned());
-                returnInteger = bdu.intValueExact();
-                returnString = String.join(" ", dx4bu.getAllValues());
-                isInteger = true;
-                logger.warn("DPT: {} after conversion: {} -> {} ({}): {}", dp.getDPT(), e.getSourceAddr(), dAddr, desc, returnInteger.toString());
-                break;
-            case 13:
-                DPTXlator4ByteSigned dx4bs = new DPTXlator4ByteSigned(dp.getDPT());
-                dx4bs.setData(asdu);
-                BigDecimal bds = new BigDecimal(dx4bs.getValueSigned());
-                returnInteger = bds.intValueExact();
-                returnString = String.join(" ", dx4bs.getAllValues());
-                isInteger = true;
-                logger.warn("DPT: {} after conversion: {} -> {} ({}): {}", dp.getDPT(), e.getSourceAddr(), dAddr, desc, returnInteger.toString());
-                break;
-            case 14:
-                DPTXlator4ByteFloat dx4bf = new DPTXlator4ByteFloat(dp.getDPT());
-                dx4bf.setData(asdu);
-                returnFloat = dx4bf.getNumericValue();
-                returnString = String.join(" ", dx4bf.getAllValues());
-                isFloat = true;
-                logger.warn("DPT: {} after conversion: {} -> {} ({}): {}", dp.getDPT(), e.getSourceAddr(), dAddr, desc, returnFloat.toString());
+        this.rawSrc = src;
+        this.rawDst = dst;
+        this.tsMicros = tsMicros;
+        this.asdu = asdu;
+    }
+
+    /**
+     * Translates the ASDU according to the datapoint type of the destination
+     * group address. Numeric values are decoded right away, the display
+     * string is created on first use.
+     */
+    public void decode(GaDescriptor desc) throws KNXException {
+        if (desc == null || desc.getDecoder() == null) {
+            throw new KNXException("GA " + getDestination() + " missing in datapoint map");
+        }
+        DptDecoder decoder = desc.getDecoder();
+        if (!decoder.accepts(asdu)) {
+            throw new KNXFormatException("ASDU of " + asdu.length + " bytes too short for DPT " + decoder.getDptId());
+        }
+        this.desc = desc;
+        this.decoder = decoder;
+        switch (decoder.getKind()) {
+            case BOOLEAN:
+            case INTEGER:
+                longValue = decoder.toLong(asdu);
+                doubleValue = longValue;
                 break;
-            case 16:
-                DPTXlatorString dxs = new DPTXlatorString(dp.getDPT());
-                dxs.setData(asdu);
-                returnString = dxs.getValue();
-                isString = true;
-                logger.warn("DPT: {} after conversion: {} -> {} ({}): {}", dp.getDPT(), e.getSourceAddr(), dAddr, desc, returnString);
+            case FLOAT:
+                doubleValue = decoder.toDouble(asdu);
                 break;
-            case 17:
-                DPTXlatorSceneNumber dxsn = new DPTXlatorSceneNumber(dp.getDPT());
-                dxsn.setData(asdu);
-                Short sn = dxsn.getSceneNumber();
-                returnString = String.join(" ", dxsn.getAllValues());
-                returnInteger = sn.intValue();
-                isInteger = true;
-                logger.warn("DPT: {} after conversion: {} -> {} ({}): {} {}", dp.getDPT(), e.getSourceAddr(), dAddr, desc, returnInteger.toString(), returnString);
+            default:
                 break;
         }
     }
 
+    /**
+     * @return false if the RecordingPolicy keeps the event out of the data
+     * table, it is still written to knx_log
+     */
+    public boolean isRecorded() {
+        return recorded;
+    }
+
+    public void setRecorded(boolean recorded) {
+        this.recorded = recorded;
+    }
+
     public KNXEventEnum getEvType() {
         return evType;
     }
 
-    public ProcessEvent getEv() {
-        return ev;
+    public IndividualAddress getSourceAddr() {
+        if (src == null) {
+            src = new IndividualAddress(rawSrc);
+        }
+        return src;
+    }
+
+    public int getRawSourceAddr() {
+        return rawSrc;
+    }
+
+    public GroupAddress getDestination() {
+        return desc != null ? desc.getAddress() : new GroupAddress(rawDst);
+    }
+
+    public int getRawDestination() {
+        return rawDst;
+    }
+
+    /**
+     * @return the descriptor of the destination, null until decoded
+     */
+    public GaDescriptor getDescriptor() {
+        return desc;
     }
 
     public LocalDateTime getTs() {
+        if (ts == null) {
+            ts = LocalDateTime.ofInstant(Instant.ofEpochSecond(tsMicros / 1000000, (tsMicros % 1000000) * 1000), ZoneId.systemDefault());
+        }
         return ts;
     }
 
+    /**
+     * @return timestamp in microseconds since the epoch
+     */
+    public long getTsMicros() {
+        return tsMicros;
+    }
+
+    public byte[] getAsdu() {
+        return asdu;
+    }
+
     /**
      * Returns a string translation of the datapoint data for the specified
      * datapoint type, using the process event ASDU.
@@ -243,49 +167,80 @@ public class KNXEvent {
      * available
      */
     public String asString() {
+        if (returnString == null && decoder != null) {
+            returnString = decoder.format(asdu);
+        }
         return returnString;
     }
 
+    public DptDecoder.Kind getKind() {
+        return decoder == null ? null : decoder.getKind();
+    }
+
     public double getNumericValue() {
-        return returnFloat;
+        return doubleValue;
     }
 
-    public boolean isBoolean() throws KNXFormatException, KNXException, Exception {
-        return isBoolean;
+    public boolean isBoolean() {
+        return getKind() == DptDecoder.Kind.BOOLEAN;
     }
 
-    public boolean isInteger() throws KNXFormatException, KNXException, Exception {
-        return isInteger;
+    public boolean isInteger() {
+        return getKind() == DptDecoder.Kind.INTEGER;
     }
 
-    public boolean isFloat() throws KNXFormatException, KNXException, Exception {
-        return isFloat;
+    public boolean isFloat() {
+        return getKind() == DptDecoder.Kind.FLOAT;
     }
 
-    public boolean isString() throws KNXFormatException, KNXException, Exception {
-        return isString;
+    public boolean isString() {
+        return getKind() == DptDecoder.Kind.STRING;
     }
 
-    public boolean getBooleanValue() throws KNXFormatException, KNXException, Exception {
-        return returnBoolean;
+    public boolean getBooleanValue() {
+        return longValue != 0;
     }
 
-    public Integer getIntegerValue() throws KNXFormatException, KNXException, Exception {
-        return returnInteger;
+    public long getLongValue() {
+        return longValue;
     }
 
-    public String getStringValue() throws KNXFormatException, KNXException, Exception {
-        return returnString;
+    public String getStringValue() {
+        return asString();
     }
 
-    public Double getFloatValue() throws KNXFormatException, KNXException, Exception {
-        return returnFloat;
+    public double getFloatValue() {
+        return doubleValue;
     }
 
+    /**
+     * Returns the current time in microseconds since the epoch, as used for
+     * the raw events in the EventRingBuffer.
+     */
+    public static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1000000L + now.getNano() / 1000;
+    }
+
+    /**
+     * The instant of the event with microsecond precision, created on the
+     * first call and shared by all inserts of the event, so it must not be
+     * modified.
+     */
     public Timestamp getSqlTs() {
-        ZoneId zone = ZoneId.of("Europe/Berlin");
-        ZoneOffset zoneOffSet = zone.getRules().getOffset(ts);
-        return new Timestamp(ts.toInstant(zoneOffSet).toEpochMilli());
+        if (sqlTs == null) {
+            sqlTs = sqlTs(tsMicros);
+        }
+        return sqlTs;
+    }
+
+    /**
+     * @param tsMicros microseconds since the epoch
+     */
+    public static Timestamp sqlTs(long tsMicros) {
+        Timestamp t = new Timestamp(tsMicros / 1000);
+        t.setNanos((int) (tsMicros % 1000000) * 1000);
+        return t;
     }
 
     /**
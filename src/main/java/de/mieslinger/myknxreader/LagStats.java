@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.util.List;
+
+/**
+ * End-to-end lag of the written events, from receipt by the EventMerger to
+ * the DB flush, shared by all DbWriters.
+ *
+ * @author mieslingert
+ */
+public class LagStats {
+
+    private long written = 0;
+    private long lagSum = 0;
+    private long lagMax = 0;
+
+    public LagStats() {
+    }
+
+    public synchronized void record(List<KNXEvent> batch) {
+        long now = KNXEvent.nowMicros();
+        for (KNXEvent kev : batch) {
+            long lag = now - kev.getTsMicros();
+            lagSum += lag;
+            lagMax = Math.max(lagMax, lag);
+        }
+        written += batch.size();
+    }
+
+    /**
+     * @return written events, average and max lag in microseconds since the
+     * last call
+     */
+    public synchronized long[] snapshotAndReset() {
+        long[] snapshot = {written, written > 0 ? lagSum / written : 0, lagMax};
+        written = 0;
+        lagSum = 0;
+        lagMax = 0;
+        return snapshot;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import tuwien.auto.calimero.IndividualAddress;
+
+/**
+ * Last value of every group address, so dashboards can read the current
+ * state without querying the DB.
+ * <p>
+ * update() is called by the EventMerger for every telegram that passed the
+ * de-duplication and only stores the raw ASDU with a sequence number, the
+ * value is decoded when it is asked for. The entries are immutable and
+ * replaced as a whole, readers don't lock.
+ *
+ * @author mieslingert
+ */
+public class LastValueCache {
+
+    private static final int GAS = 65536;
+    private final AtomicReferenceArray<LastValue> entries = new AtomicReferenceArray<>(GAS);
+    // decoders of the readers, the ones of the descriptors belong to the DbWriters
+    private final DptDecoder[] formatters = new DptDecoder[GAS];
+    private final GaDescriptor[] formattersOf = new GaDescriptor[GAS];
+    private final Object formatLock = new Object();
+    private GaTable gaTable;
+    private volatile long sequence = 0;
+
+    private LastValueCache() {
+    }
+
+    public LastValueCache(GaTable gaTable) {
+        this.gaTable = gaTable;
+    }
+
+    /**
+     * The last telegram carrying a value to one GA.
+     */
+    public static class LastValue {
+
+        private final GaDescriptor desc;
+        private final int src;
+        private final long tsMicros;
+        private final byte[] asdu;
+        private final long updates;
+        private final long seq;
+
+        private LastValue(GaDescriptor desc, int src, long tsMicros, byte[] asdu, long updates, long seq) {
+            this.desc = desc;
+            this.src = src;
+            this.tsMicros = tsMicros;
+            this.asdu = asdu;
+            this.updates = updates;
+            this.seq = seq;
+        }
+
+        public GaDescriptor getDescriptor() {
+            return desc;
+        }
+
+        public int getSrc() {
+            return src;
+        }
+
+        public long getTsMicros() {
+            return tsMicros;
+        }
+
+        public byte[] getAsdu() {
+            return asdu;
+        }
+
+        public long getUpdates() {
+            return updates;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+    }
+
+    /**
+     * Stores the value of a groupWrite or groupReadResponse, read requests
+     * carry no value and are ignored.
+     */
+    public synchronized void update(KNXEventEnum evType, int src, int dst, long tsMicros, byte[] asdu) {
+        if (evType == KNXEventEnum.groupReadRequest) {
+            return;
+        }
+        dst &= 0xffff;
+        GaDescriptor desc = gaTable.get(dst);
+        if (desc == null || desc.getDecoder() == null) {
+            return;
+        }
+        LastValue prev = entries.get(dst);
+        long seq = sequence + 1;
+        entries.set(dst, new LastValue(desc, src, tsMicros, asdu, prev == null ? 1 : prev.updates + 1, seq));
+        sequence = seq;
+    }
+
+    /**
+     * @return sequence number of the latest update, 0 before the first
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the values updated after sequence since, in GA order
+     */
+    public List<LastValue> changedSince(long since) {
+        List<LastValue> changed = new ArrayList<>();
+        for (int ga = 0; ga < GAS; ga++) {
+            LastValue v = entries.get(ga);
+            if (v != null && v.seq > since) {
+                changed.add(v);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the display string of a value, as stored in knx_log.value
+     */
+    public String format(LastValue v) {
+        synchronized (formatLock) {
+            DptDecoder decoder = formatter(v.desc.getRawAddress(), v.desc);
+            return decoder.accepts(v.asdu) ? decoder.format(v.asdu) : KNXEvent.toHex(v.asdu, "");
+        }
+    }
+
+    /**
+     * Appends the values of the GAs from..to (raw, inclusive) that were
+     * updated after sequence since as JSON array.
+     *
+     * @return number of values appended
+     */
+    public int toJson(StringBuilder sb, int from, int to, long since) {
+        sb.append('[');
+        int n = 0;
+        synchronized (formatLock) {
+            for (int ga = Math.max(from, 0); ga <= Math.min(to, GAS - 1); ga++) {
+                LastValue e = entries.get(ga);
+                if (e == null || e.seq <= since) {
+                    continue;
+                }
+                if (n++ > 0) {
+                    sb.append(',');
+                }
+                append(sb, ga, e);
+            }
+        }
+        sb.append(']');
+        return n;
+    }
+
+    private void append(StringBuilder sb, int ga, LastValue e) {
+        DptDecoder decoder = formatter(ga, e.desc);
+        sb.append("{\"ga\":");
+        string(sb, e.desc.getAddressString());
+        sb.append(",\"name\":");
+        string(sb, e.desc.getName());
+        sb.append(",\"dpt\":");
+        string(sb, e.desc.getDpt());
+        sb.append(",\"value\":");
+        if (!decoder.accepts(e.asdu)) {
+            sb.append("null");
+        } else {
+            switch (decoder.getKind()) {
+                case BOOLEAN:
+                    sb.append(decoder.toLong(e.asdu) != 0);
+                    break;
+                case INTEGER:
+                    sb.append(decoder.toLong(e.asdu));
+                    break;
+                case FLOAT:
+                    double d = decoder.toDouble(e.asdu);
+                    if (Double.isFinite(d)) {
+                        sb.append(d);
+                    } else {
+                        sb.append("null");
+                    }
+                    break;
+                default:
+                    string(sb, decoder.format(e.asdu));
+                    break;
+            }
+        }
+        sb.append(",\"display\":");
+        string(sb, decoder.accepts(e.asdu) ? decoder.format(e.asdu) : KNXEvent.toHex(e.asdu, ""));
+        sb.append(",\"src\":");
+        string(sb, new IndividualAddress(e.src).toString());
+        sb.append(",\"ts\":");
+        string(sb, Instant.ofEpochSecond(e.tsMicros / 1000000, (e.tsMicros % 1000000) * 1000).toString());
+        sb.append(",\"updates\":").append(e.updates);
+        sb.append(",\"seq\":").append(e.seq);
+        sb.append('}');
+    }
+
+    /**
+     * Decoders keep translator state, so the readers use their own instance
+     * per GA, recreated when the GA file changed the descriptor.
+     */
+    private DptDecoder formatter(int ga, GaDescriptor desc) {
+        if (formattersOf[ga] != desc) {
+            formatters[ga] = DptDecoder.forDatapoint(desc.getMainNumber(), desc.getDpt());
+            formattersOf[ga] = desc;
+        }
+        return formatters[ga];
+    }
+
+    static void string(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs sustained rates and lag of a load test, run periodically.
+ *
+ * @author mieslingert
+ */
+public class LoadReport implements Runnable {
+
+    private LongSupplier emitted;
+    private GatewayStats[] gateways;
+    private LagStats lag;
+    private long lastRun = System.currentTimeMillis();
+    private long lastEmitted = 0;
+    private long lastReceived = 0;
+    private final static Logger logger = LoggerFactory.getLogger(LoadReport.class);
+
+    private LoadReport() {
+    }
+
+    /**
+     * @param emitted telegrams emitted by the load sources so far
+     */
+    public LoadReport(LongSupplier emitted, GatewayStats[] gateways, LagStats lag) {
+        this.emitted = emitted;
+        this.gateways = gateways;
+        this.lag = lag;
+    }
+
+    @Override
+    public void run() {
+        long now = System.currentTimeMillis();
+        long seconds = Math.max(1, (now - lastRun) / 1000);
+        long emittedNow = emitted.getAsLong();
+        long receivedNow = 0;
+        for (GatewayStats g : gateways) {
+            receivedNow += g.getReceived();
+        }
+        long[] written = lag.snapshotAndReset();
+        logger.info("load: {} emitted/s, {} received/s, {} written/s, lag avg {} ms max {} ms",
+                (emittedNow - lastEmitted) / seconds, (receivedNow - lastReceived) / seconds, written[0] / seconds,
+                written[1] / 1000, written[2] / 1000);
+        lastRun = now;
+        lastEmitted = emittedNow;
+        lastReceived = receivedNow;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintains a knx_log table that is RANGE partitioned on ts with one
+ * partition per day or month. Future partitions are created ahead of time by
+ * splitting the catch-all partition pmax, expired ones are removed with
+ * ALTER TABLE ... DROP PARTITION, which is much cheaper than deleting rows.
+ * <p>
+ * An existing knx_log that is not partitioned is left alone, in that case
+ * RetentionTask keeps deleting rows as before.
+ *
+ * @author mieslingert
+ */
+public class LogPartitioner implements Runnable {
+
+    public enum Mode {
+        none, day, month;
+    }
+
+    private String jdbcUrl;
+    private String user;
+    private String password;
+    private Mode mode;
+    private String retention;
+    private int premake;
+    private Connection conn;
+    private volatile boolean active = false;
+    private boolean warned = false;
+    private final static Logger logger = LoggerFactory.getLogger(LogPartitioner.class);
+
+    private LogPartitioner() {
+    }
+
+    /**
+     * @param retention retention of knx_log, see RetentionTask
+     * @param premake number of future partitions to keep ready
+     */
+    public LogPartitioner(String jdbcUrl, String user, String password, Mode mode, String retention, int premake) {
+        this.jdbcUrl = jdbcUrl;
+        this.user = user;
+        this.password = password;
+        this.mode = mode;
+        this.retention = retention;
+        this.premake = premake;
+        logger.info("LogPartitioner instantiated, one partition per {}, {} partitions ahead", mode, premake);
+    }
+
+    /**
+     * @return true if knx_log is partitioned and maintained by this class
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Returns the partition clause for create table knx_log, covering the
+     * current and the next premake periods.
+     */
+    public String partitionClause() {
+        StringBuilder sb = new StringBuilder(" partition by range (unix_timestamp(ts)) (");
+        LocalDate start = periodStart(LocalDate.now());
+        for (int i = 0; i <= premake; i++) {
+            appendPartition(sb, start);
+            sb.append(',');
+            start = next(start);
+        }
+        sb.append("partition pmax values less than maxvalue)");
+        active = true;
+        return sb.toString();
+    }
+
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        try {
+            if (conn == null || !conn.isValid(5)) {
+                conn = DbWriter.connect(jdbcUrl, user, password);
+            }
+
+            List<String> names = new ArrayList<>();
+            List<String> bounds = new ArrayList<>();
+            PreparedStatement ps = conn.prepareStatement("select partition_name, partition_description from information_schema.partitions "
+                    + "where table_schema = database() and table_name = 'knx_log' order by partition_ordinal_position");
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                if (rs.getString(1) != null) {
+                    names.add(rs.getString(1));
+                    bounds.add(rs.getString(2));
+                }
+            }
+            rs.close();
+            ps.close();
+
+            if (names.isEmpty()) {
+                active = false;
+                if (!warned) {
+                    logger.warn("knx_log exists but is not partitioned, leaving it alone and purging it row by row");
+                    warned = true;
+                }
+                return;
+            }
+            active = true;
+
+            int added = addPartitions(names, bounds);
+            int dropped = dropPartitions(names, bounds);
+            logger.info("knx_log partition maintenance added {} and dropped {} partitions in {} ms",
+                    added, dropped, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            logger.warn("knx_log partition maintenance failed: {}", e.getMessage());
+        }
+    }
+
+    private int addPartitions(List<String> names, List<String> bounds) throws Exception {
+        long maxBound = Long.MIN_VALUE;
+        boolean hasMax = false;
+        for (String bound : bounds) {
+            if ("MAXVALUE".equalsIgnoreCase(bound)) {
+                hasMax = true;
+            } else {
+                maxBound = Math.max(maxBound, Long.parseLong(bound));
+            }
+        }
+
+        // the upper bound of the last partition is the start of the next one
+        LocalDate start = periodStart(LocalDate.now());
+        if (maxBound != Long.MIN_VALUE) {
+            LocalDate last = LocalDate.ofInstant(Instant.ofEpochSecond(maxBound), ZoneId.systemDefault());
+            if (last.isAfter(start)) {
+                start = last;
+            }
+        }
+        LocalDate end = periodStart(LocalDate.now());
+        for (int i = 0; i <= premake; i++) {
+            end = next(end);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        int count = 0;
+        while (start.isBefore(end)) {
+            if (count > 0) {
+                sb.append(',');
+            }
+            appendPartition(sb, start);
+            start = next(start);
+            count++;
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        String sql;
+        if (hasMax) {
+            sql = "alter table knx_log reorganize partition pmax into (" + sb + ",partition pmax values less than maxvalue)";
+        } else {
+            sql = "alter table knx_log add partition (" + sb + ")";
+        }
+        PreparedStatement ps = conn.prepareStatement(sql);
+        ps.executeUpdate();
+        ps.close();
+        return count;
+    }
+
+    private int dropPartitions(List<String> names, List<String> bounds) throws Exception {
+        Timestamp cutoff = RetentionTask.cutoff(retention);
+        if (cutoff == null) {
+            return 0;
+        }
+        long cutoffSeconds = cutoff.getTime() / 1000;
+        StringBuilder sb = new StringBuilder();
+        int count = 0;
+        for (int i = 0; i < names.size(); i++) {
+            String bound = bounds.get(i);
+            // a partition only contains rows older than its bound
+            if (!"MAXVALUE".equalsIgnoreCase(bound) && Long.parseLong(bound) <= cutoffSeconds) {
+                if (count > 0) {
+                    sb.append(',');
+                }
+                sb.append(names.get(i));
+                count++;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        PreparedStatement ps = conn.prepareStatement("alter table knx_log drop partition " + sb);
+        ps.executeUpdate();
+        ps.close();
+        logger.info("dropped expired knx_log partitions {}", sb);
+        return count;
+    }
+
+    private void appendPartition(StringBuilder sb, LocalDate start) {
+        String name = start.format(mode == Mode.day ? DateTimeFormatter.BASIC_ISO_DATE : DateTimeFormatter.ofPattern("yyyyMM"));
+        long bound = next(start).atStartOfDay(ZoneId.systemDefault()).toEpochSecond();
+        sb.append("partition p").append(name).append(" values less than (").append(bound).append(')');
+    }
+
+    private LocalDate periodStart(LocalDate date) {
+        return mode == Mode.day ? date : date.withDayOfMonth(1);
+    }
+
+    private LocalDate next(LocalDate start) {
+        return mode == Mode.day ? start.plusDays(1) : start.plusMonths(1);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import com.sampullara.cli.Args;
+import com.sampullara.cli.Argument;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tuwien.auto.calimero.GroupAddress;
+import tuwien.auto.calimero.datapoint.StateDP;
+
+/**
+ * Copies the per GA data tables into knx_value for the narrow mode (-dm
+ * narrow). GA and DPT are taken from the table name, the description from
+ * knx_log.
+ * <p>
+ * Rows are streamed in ts order in batches of batchSize, each batch is one
+ * transaction. Existing rows are skipped, so the migration can be
+ * interrupted and run again, also while the logger is already writing in
+ * narrow mode. The data tables are left alone, drop them once the result
+ * has been checked.
+ * <pre>
+ * java -cp MyKnxReader.jar de.mieslinger.myknxreader.NarrowMigration -j jdbc:mysql://localhost:3306/knx -u knx -p secret
+ * </pre>
+ *
+ * @author mieslingert
+ */
+public class NarrowMigration {
+
+    @Argument(alias = "j", description = "jdbcurl")
+    private static String jdbcUrl = "jdbc:mysql://localhost:3306/knx_test_db";
+
+    @Argument(alias = "c", description = "jdbc class")
+    private static String jdbcClass = "com.mysql.jdbc.Driver";
+
+    @Argument(alias = "u", description = "user to connect to db")
+    private static String dbUser = "root";
+
+    @Argument(alias = "p", description = "db password")
+    private static String dbPassword = "";
+
+    @Argument(alias = "bs", description = "rows copied per transaction")
+    private static Integer batchSize = 5000;
+
+    @Argument(alias = "t", description = "comma separated list of data tables to migrate, empty for all")
+    private static String onlyTables = "";
+
+    private static final Logger logger = LoggerFactory.getLogger(NarrowMigration.class);
+
+    private NarrowMigration() {
+    }
+
+    public static void main(String[] args) {
+        Args.parseOrExit(NarrowMigration.class, args);
+        long start = System.currentTimeMillis();
+        long total = 0;
+        try {
+            Class.forName(jdbcClass);
+            Connection conn = DbWriter.connect(jdbcUrl, dbUser, dbPassword);
+            TableRegistry tables = new TableRegistry();
+            tables.setNarrow(true);
+            tables.load(conn);
+            tables.ensureGaTable(conn);
+            tables.ensureValueTable(conn);
+            tables.loadGaIds(conn);
+
+            List<String> dataTables = new ArrayList<>();
+            if (onlyTables.isEmpty()) {
+                for (String name : tables.getTableNames()) {
+                    if (name.startsWith("data_") && !TableRegistry.isRollupTable(name)) {
+                        dataTables.add(name);
+                    }
+                }
+            } else {
+                for (String name : onlyTables.split(",")) {
+                    dataTables.add(name.trim().toLowerCase());
+                }
+            }
+            Collections.sort(dataTables);
+            logger.info("migrating {} data tables to {}", dataTables.size(), TableRegistry.VALUE_TABLE);
+            for (String table : dataTables) {
+                GaDescriptor desc = descriptorOf(conn, table);
+                if (desc == null) {
+                    logger.warn("skipping {}, not a data table name", table);
+                    continue;
+                }
+                int gaId = tables.ensureGaId(conn, desc);
+                if (gaId < 0) {
+                    logger.warn("skipping {}, no GA id", table);
+                    continue;
+                }
+                total += copy(conn, table, gaId, desc.isFloat());
+            }
+            conn.close();
+        } catch (Exception e) {
+            logger.error("migration failed", e);
+            System.exit(1);
+        }
+        logger.info("migrated {} rows in {} s", total, (System.currentTimeMillis() - start) / 1000);
+    }
+
+    /**
+     * Rebuilds the descriptor from a table name like data_5_0_2_9_001, the
+     * description is taken from knx_log if there is one.
+     */
+    private static GaDescriptor descriptorOf(Connection conn, String table) {
+        String[] parts = table.split("_");
+        if (parts.length != 6) {
+            return null;
+        }
+        try {
+            GroupAddress ga = new GroupAddress(parts[1] + "/" + parts[2] + "/" + parts[3]);
+            int mainNumber = Integer.parseInt(parts[4]);
+            String dpt = mainNumber + "." + parts[5];
+            String description = "";
+            PreparedStatement ps = conn.prepareStatement("select dst_desc from knx_log where dst_addr = ? limit 1");
+            ps.setString(1, ga.toString());
+            ResultSet rs = ps.executeQuery();
+            if (rs.next() && rs.getString(1) != null) {
+                description = rs.getString(1);
+            }
+            rs.close();
+            ps.close();
+            return new GaDescriptor(new StateDP(ga, description, mainNumber, dpt), RecordingPolicy.ALL);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Copies the table in ts order, resuming after the last ts copied, one
+     * transaction per batch.
+     */
+    private static long copy(Connection conn, String table, int gaId, boolean isFloat) throws Exception {
+        long start = System.currentTimeMillis();
+        long copied = 0;
+        Timestamp last = new Timestamp(0);
+        PreparedStatement select = conn.prepareStatement("select ts, value from " + table + " where ts > ? order by ts limit ?");
+        PreparedStatement insert = conn.prepareStatement("insert ignore into " + TableRegistry.VALUE_TABLE
+                + " (ga_id, ts, value_double, value_long) values (?,?,?,?)");
+        try {
+            int rows;
+            do {
+                rows = 0;
+                select.setTimestamp(1, last);
+                select.setInt(2, batchSize);
+                ResultSet rs = select.executeQuery();
+                conn.setAutoCommit(false);
+                while (rs.next()) {
+                    last = rs.getTimestamp(1);
+                    insert.setInt(1, gaId);
+                    insert.setTimestamp(2, last);
+                    if (isFloat) {
+                        insert.setDouble(3, rs.getDouble(2));
+                        insert.setNull(4, Types.BIGINT);
+                    } else {
+                        insert.setNull(3, Types.DOUBLE);
+                        insert.setLong(4, rs.getLong(2));
+                    }
+                    insert.addBatch();
+                    rows++;
+                }
+                rs.close();
+                insert.executeBatch();
+                conn.commit();
+                conn.setAutoCommit(true);
+                copied += rows;
+            } while (rows == batchSize);
+        } finally {
+            select.close();
+            insert.close();
+        }
+        logger.info("copied {} rows of {} as GA id {} in {} ms", copied, table, gaId, System.currentTimeMillis() - start);
+        return copied;
+    }
+}
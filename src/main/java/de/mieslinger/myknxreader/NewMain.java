@@ -23,24 +23,19 @@
  */
 package de.mieslinger.myknxreader;
 
-import com.opencsv.CSVParser;
-import com.opencsv.CSVParserBuilder;
-import com.opencsv.CSVReader;
-import com.opencsv.CSVReaderBuilder;
 import com.sampullara.cli.Args;
 import com.sampullara.cli.Argument;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import tuwien.auto.calimero.GroupAddress;
 import tuwien.auto.calimero.KNXFormatException;
-import tuwien.auto.calimero.datapoint.DatapointMap;
-import tuwien.auto.calimero.datapoint.DatapointModel;
-import tuwien.auto.calimero.datapoint.StateDP;
 
 /**
  *
@@ -48,9 +43,48 @@ import tuwien.auto.calimero.datapoint.StateDP;
  */
 public class NewMain {
 
-    @Argument(alias = "g", description = "KNX tunnel device")
+    @Argument(alias = "g", description = "KNX tunnel device (host or host:port), comma separated list for several gateways; replay, synthetic or standin for load tests")
     private static String KNXIPGateway = "10.2.215.62";
 
+    @Argument(alias = "dw", description = "window in ms in which a telegram seen on another gateway is dropped as duplicate, 0 disables")
+    private static Long dedupWindow = 200L;
+
+    @Argument(alias = "gs", description = "seconds between gateway statistics log lines, 0 disables")
+    private static Long gatewayStatsInterval = 300L;
+
+    @Argument(alias = "ui", description = "seconds between reports of telegrams to GAs missing in the GA file, 0 disables")
+    private static Long unknownInterval = 300L;
+
+    @Argument(alias = "uw", description = "write GAs missing in the GA file to knx_unknown on every report")
+    private static boolean unknownTable = false;
+
+    @Argument(alias = "cf", description = "file to capture all received telegrams to, for replay")
+    private static String captureFile = "";
+
+    @Argument(alias = "rf", description = "telegram capture replayed by the replay and standin gateways")
+    private static String replayFile = "";
+
+    @Argument(alias = "rs", description = "replay speed, 1 for the recorded rate, 0 for max speed")
+    private static Double replaySpeed = 1.0;
+
+    @Argument(alias = "lr", description = "telegrams/s generated by the synthetic and standin gateways")
+    private static Integer loadRate = 1000;
+
+    @Argument(alias = "sp", description = "UDP port of the local KNXnet/IP stand-in")
+    private static Integer standInPort = 13671;
+
+    @Argument(alias = "li", description = "seconds between load test reports")
+    private static Long loadReportInterval = 10L;
+
+    @Argument(alias = "mp", description = "port of the Prometheus metrics endpoint, 0 disables")
+    private static Integer metricsPort = 0;
+
+    @Argument(alias = "vp", description = "port of the HTTP endpoint serving the last value of every GA as JSON, 0 disables")
+    private static Integer valuesPort = 0;
+
+    @Argument(alias = "ci", description = "seconds between upserts of the changed GAs into knx_current, 0 disables")
+    private static Long currentInterval = 0L;
+
     @Argument(alias = "j", description = "jdbcurl")
     private static String jdbcUrl = "jdbc:mysql://localhost:3306/knx_test_db";
 
@@ -63,19 +97,114 @@ public class NewMain {
     @Argument(alias = "p", description = "db password")
     private static String dbPassword = "";
 
-    @Argument(alias = "f", description = "file to read group addresses (csv format)")
+    @Argument(alias = "f", description = "file to read group addresses (csv format, or an ETS project .knxproj)")
     private static String gaFile = "ga.csv";
 
+    @Argument(alias = "sf", description = "binary snapshot of the parsed GA file, empty for <ga file>.snapshot, none to disable")
+    private static String gaSnapshot = "";
+
+    @Argument(alias = "nr", description = "don't reload the GA file when it changes")
+    private static boolean noReload = false;
+
     @Argument(alias = "cs", description = "Characterset of group addresses file (UTF-8)")
     private static String characterSetGaFile = "UTF-8";
 
-    // FIXME: implement me!
-    @Argument(alias = "d", description = "enable debug")
+    @Argument(alias = "bs", description = "max number of events written to the DB in one transaction")
+    private static Integer batchSize = 500;
+
+    @Argument(alias = "fi", description = "max time in ms an event waits for its batch to be flushed")
+    private static Long flushInterval = 1000L;
+
+    @Argument(alias = "w", description = "number of DB writer threads, events are distributed by GA")
+    private static Integer writers = 1;
+
+    @Argument(alias = "wr", description = "ring buffer slots per DB writer thread, only used with more than one writer")
+    private static Integer workerRingSize = 4096;
+
+    @Argument(alias = "ps", description = "max number of DB connections of the writers, at least the number of writers, 0 for one per writer")
+    private static Integer poolSize = 0;
+
+    @Argument(alias = "sc", description = "max number of prepared insert statements kept open")
+    private static Integer statementCacheSize = 512;
+
+    @Argument(alias = "dm", description = "where numeric values go: tables (one data table per GA) or narrow (knx_value)")
+    private static String dataMode = "tables";
+
+    @Argument(alias = "rl", description = "retention of knx_log, e.g. 3M or 90d, empty to keep forever")
+    private static String logRetention = "3M";
+
+    @Argument(alias = "rd", description = "retention of the data tables, e.g. 2y, empty to keep forever")
+    private static String dataRetention = "";
+
+    @Argument(alias = "rt", description = "retention per table, e.g. data_5_0_2_9_001=1y,data_1_2_3_7_001=30d")
+    private static String tableRetention = "";
+
+    @Argument(alias = "ro", description = "rollup buckets of the data tables (of knx_value in narrow mode), e.g. 1m,1h, empty to disable")
+    private static String rollups = "1m,1h";
+
+    @Argument(alias = "rr", description = "retention of the rollup tables, e.g. 10y, empty to keep forever")
+    private static String rollupRetention = "";
+
+    @Argument(alias = "ad", description = "directory for the binary archive of the written events, empty to disable")
+    private static String archiveDir = "";
+
+    @Argument(alias = "ab", description = "max number of events of one GA in an archive block")
+    private static Integer archiveBlockSize = 4096;
+
+    @Argument(alias = "af", description = "seconds between writes of the collected events to the archive")
+    private static Long archiveFlush = 300L;
+
+    @Argument(alias = "ri", description = "minutes between retention runs")
+    private static Long retentionInterval = 60L;
+
+    @Argument(alias = "rc", description = "max rows deleted per statement by retention")
+    private static Integer retentionChunk = 5000;
+
+    @Argument(alias = "rp", description = "pause in ms between retention deletes")
+    private static Long retentionPause = 200L;
+
+    @Argument(alias = "pm", description = "partition knx_log by none, day or month (only applies when knx_log is created)")
+    private static String partitionMode = "none";
+
+    @Argument(alias = "pa", description = "number of future knx_log partitions to create ahead")
+    private static Integer partitionsAhead = 3;
+
+    @Argument(alias = "rb", description = "number of events buffered between KNX and DB (rounded up to a power of 2)")
+    private static Integer ringBufferSize = 16384;
+
+    @Argument(alias = "op", description = "what to do when the buffer is full: block, dropOldest or spill")
+    private static String overflowPolicy = "spill";
+
+    @Argument(alias = "sd", description = "spool directory for events while the DB is unavailable or slow, empty to disable")
+    private static String spoolDir = "/var/tmp/knx-logger-spool";
+
+    @Argument(alias = "ss", description = "size of a spool segment file in MB")
+    private static Long spoolSegmentSize = 16L;
+
+    @Argument(alias = "sm", description = "max disk space used by the spool in MB")
+    private static Long spoolMaxSize = 1024L;
+
+    @Argument(alias = "ra", description = "record every event, ignore the recording policies of the GA file")
+    private static boolean recordAll = false;
+
+    @Argument(alias = "ts", description = "trace one in n events, 0 disables sampling")
+    private static Integer traceSample = 0;
+
+    @Argument(alias = "tg", description = "comma separated list of GAs whose events are always traced")
+    private static String traceGroups = "";
+
+    @Argument(alias = "d", description = "enable debug, traces every event")
     private static boolean debug = false;
 
     private static final Logger logger = LoggerFactory.getLogger(NewMain.class);
-    private static final ConcurrentLinkedQueue<KNXEvent> queue = new ConcurrentLinkedQueue<>();
-    private static final DatapointModel<StateDP> datapoints = new DatapointMap<>();
+    private static EventRingBuffer ring;
+    private static EventSpool spool;
+    private static final TableRegistry tables = new TableRegistry();
+    private static final GaTable gaTable = new GaTable();
+    private static LagStats lagStats;
+    private static ArchiveWriter archive;
+    private static LastValueCache lastValues;
+    private static final PipelineMetrics metrics = new PipelineMetrics();
 
     /**
      * @param args the command line arguments
@@ -83,99 +212,334 @@ public class NewMain {
     public static void main(String[] args) {
 
         List<String> unparsed = Args.parseOrExit(NewMain.class, args);
+        File snapshot = null;
+        if (!"none".equals(gaSnapshot)) {
+            snapshot = new File(gaSnapshot.isEmpty() ? gaFile + ".snapshot" : gaSnapshot);
+        }
         try {
-            /* Example content
-             * "EG"; ; ;"1/-/-";"";"";"";"";"Auto"
-             *  ;"Licht"; ;"1/0/-";"";"";"";"";"Auto"
-             *  ; ;"Flur oben - Schalten";"1/0/9";"";"";"Flur Licht Treppe";"DPST-1-1";"Auto"
-             */
-
-            // relevant fields 0,1,2,3,6,7
-            // 0 HG
-            // 1 MG
-            // 2 GA desc1
-            // 3 GA
-            // 6 desc2
-            // 7 dpt
-            String lastHgSeen = "";
-            String lastMgSeen = "";
-            String[] nextLine;
-
-            FileInputStream fis = new FileInputStream(gaFile);
-            InputStreamReader isr = new InputStreamReader(fis, Charset.forName(characterSetGaFile));
-
-            CSVParser parser = new CSVParserBuilder()
-                    .withSeparator(';')
-                    .withIgnoreQuotations(false)
-                    .build();
-
-            CSVReader csvReader = new CSVReaderBuilder(isr)
-                    .withSkipLines(0)
-                    .withCSVParser(parser)
-                    .build();
-
-            while ((nextLine = csvReader.readNext()) != null) {
-
-                int numElements = nextLine.length;
-
-                if (numElements > 0 && nextLine[0].length() > 1) {
-                    lastHgSeen = nextLine[0];
-                }
-                if (numElements > 1 && nextLine[1].length() > 1) {
-                    lastMgSeen = nextLine[1];
-                }
-                if (numElements > 7 && nextLine[7].length() > 1) {
-                    //addDP("5/0/0", "Eltern Bad", 9, "9.001");
-                    addDP(nextLine[3],
-                            lastHgSeen + "-" + lastMgSeen + "-" + nextLine[2] + "-" + nextLine[6],
-                            nextLine[7]);
-                    logger.info("added DP: " + nextLine[3] + " ", lastHgSeen + "-" + lastMgSeen + "-" + nextLine[2] + "-" + nextLine[6]);
-                }
-            }
-
+            gaTable.registerAll(GaFileLoader.load(gaFile, characterSetGaFile, snapshot));
         } catch (Exception e) {
             logger.error("unable to load datapoint information", e);
             System.exit(1);
         }
 
-        // setup communication ConcurrentLinkedQueue
+        // setup ring buffer between KNX and DB
+        try {
+            EventRingBuffer.OverflowPolicy policy = EventRingBuffer.OverflowPolicy.valueOf(overflowPolicy);
+            if (spoolDir != null && !spoolDir.isEmpty()) {
+                spool = new EventSpool(spoolDir, spoolSegmentSize * 1024 * 1024, spoolMaxSize * 1024 * 1024);
+            }
+            ring = new EventRingBuffer(ringBufferSize, policy, spool);
+        } catch (Exception e) {
+            logger.error("unable to setup event buffer", e);
+            System.exit(1);
+        }
+
         // setup thread for groupMonitor and run it
-        Thread tGroupMonitor = new Thread(new GroupMonitor(KNXIPGateway, queue, datapoints));
-        tGroupMonitor.setDaemon(true);
-        tGroupMonitor.setName("GroupMonitor");
-        tGroupMonitor.start();
-        logger.debug("GroupMonitor Thread started");
+        // one GroupMonitor per gateway, all feeding the same ring buffer
+        String[] gateways = KNXIPGateway.split(",");
+        GatewayStats[] gatewayStats = new GatewayStats[gateways.length];
+        for (int i = 0; i < gateways.length; i++) {
+            gatewayStats[i] = new GatewayStats(gateways[i].trim());
+        }
+        EventMerger merger = new EventMerger(ring, gatewayStats, dedupWindow);
+        merger.setMetrics(metrics);
+        metrics.setGateways(gatewayStats);
+        metrics.setSpool(spool);
+        metrics.addQueue("main", ring);
+        metrics.register();
+        if (metricsPort > 0) {
+            try {
+                new MetricsServer(metricsPort, metrics).start();
+            } catch (IOException e) {
+                logger.error("unable to start metrics endpoint on port {}", metricsPort, e);
+                System.exit(1);
+            }
+        }
+        if (valuesPort > 0 || currentInterval > 0) {
+            lastValues = new LastValueCache(gaTable);
+            merger.setLastValues(lastValues);
+        }
+        if (valuesPort > 0) {
+            try {
+                new ValueServer(valuesPort, lastValues).start();
+            } catch (IOException e) {
+                logger.error("unable to start last value endpoint on port {}", valuesPort, e);
+                System.exit(1);
+            }
+        }
+        if (captureFile != null && !captureFile.isEmpty()) {
+            try {
+                TelegramCapture.Writer capture = new TelegramCapture.Writer(captureFile);
+                merger.setCapture(capture);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        capture.close();
+                        logger.info("{} telegrams captured to {}", capture.getWritten(), captureFile);
+                    } catch (IOException e) {
+                        logger.warn("unable to close capture {}: {}", captureFile, e.getMessage());
+                    }
+                }, "CaptureClose"));
+            } catch (IOException e) {
+                logger.error("unable to create capture file {}", captureFile, e);
+                System.exit(1);
+            }
+        }
+        // replay and synthetic feed the merger directly, standin goes through
+        // a real GroupMonitor and KNXnet/IP on the loopback interface
+        List<LongSupplier> loadSources = new ArrayList<>();
+        for (int i = 0; i < gateways.length; i++) {
+            String gateway = gateways[i].trim();
+            String monitorHost = gateway;
+            switch (gateway) {
+                case "replay":
+                case "synthetic":
+                    final int index = i;
+                    startLoadSource(gateway, (evType, src, dst, asdu) -> {
+                        GaDescriptor desc = gaTable.get(dst);
+                        if (desc == null) {
+                            merger.unknownGa(src, dst, asdu);
+                        } else if (desc.isPersist()) {
+                            merger.offer(index, evType, src, dst, asdu);
+                        }
+                    }, loadSources);
+                    gatewayStats[i].setLinkOpen(true);
+                    continue;
+                case "standin":
+                    try {
+                        TunnelStandIn standIn = new TunnelStandIn(standInPort, gaTable);
+                        Thread tStandIn = new Thread(standIn, "TunnelStandIn");
+                        tStandIn.setDaemon(true);
+                        tStandIn.start();
+                        startLoadSource(replayFile.isEmpty() ? "synthetic" : "replay", standIn, loadSources);
+                        monitorHost = "127.0.0.1:" + standIn.getPort();
+                    } catch (IOException e) {
+                        logger.error("unable to start KNXnet/IP stand-in on port {}", standInPort, e);
+                        System.exit(1);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            Thread tGroupMonitor = new Thread(new GroupMonitor(monitorHost, merger, i, gaTable));
+            tGroupMonitor.setDaemon(true);
+            tGroupMonitor.setName(gateways.length > 1 ? "GroupMonitor-" + gateway : "GroupMonitor");
+            tGroupMonitor.start();
+        }
+        if (!loadSources.isEmpty() && loadReportInterval > 0) {
+            lagStats = new LagStats();
+            LoadReport report = new LoadReport(() -> loadSources.stream().mapToLong(LongSupplier::getAsLong).sum(),
+                    gatewayStats, lagStats);
+            ScheduledExecutorService loadReport = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "LoadReport");
+                t.setDaemon(true);
+                return t;
+            });
+            loadReport.scheduleAtFixedRate(report, loadReportInterval, loadReportInterval, TimeUnit.SECONDS);
+        }
+        logger.debug("{} GroupMonitor Threads started", gateways.length);
+        if (unknownInterval > 0) {
+            UnknownGaTracker unknownGas = new UnknownGaTracker();
+            if (unknownTable) {
+                unknownGas.setDb(jdbcUrl, dbUser, dbPassword, tables);
+            }
+            merger.setUnknownGaTracker(unknownGas);
+            ScheduledExecutorService unknownReport = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "UnknownGaReport");
+                t.setDaemon(true);
+                return t;
+            });
+            unknownReport.scheduleWithFixedDelay(unknownGas, unknownInterval, unknownInterval, TimeUnit.SECONDS);
+        }
+        if (gatewayStatsInterval > 0) {
+            ScheduledExecutorService stats = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "GatewayStats");
+                t.setDaemon(true);
+                return t;
+            });
+            stats.scheduleAtFixedRate(merger, gatewayStatsInterval, gatewayStatsInterval, TimeUnit.SECONDS);
+        }
 
         // setup DB wirter and run it
-        Thread tDBWriter = new Thread(new DbWriter(jdbcClass, jdbcUrl, dbUser, dbPassword, queue, datapoints));
-        tDBWriter.setDaemon(true);
-        tDBWriter.setName("DBWriter");
-        tDBWriter.run();
-        logger.debug("DBWriter started");
+        LogPartitioner partitioner = null;
+        try {
+            LogPartitioner.Mode mode = LogPartitioner.Mode.valueOf(partitionMode);
+            if (mode != LogPartitioner.Mode.none) {
+                partitioner = new LogPartitioner(jdbcUrl, dbUser, dbPassword, mode, logRetention, partitionsAhead);
+                tables.setLogPartitioner(partitioner);
+            }
+        } catch (IllegalArgumentException e) {
+            logger.error("invalid partition mode: {}", partitionMode);
+            System.exit(1);
+        }
+        if (!dataMode.equals("tables") && !dataMode.equals("narrow")) {
+            logger.error("invalid data mode: {}", dataMode);
+            System.exit(1);
+        }
+        tables.setNarrow(dataMode.equals("narrow"));
+        if (writers < 1) {
+            logger.error("invalid number of writers: {}", writers);
+            System.exit(1);
+        }
+        // every writer holds its connection for its whole lifetime
+        if (poolSize > 0 && poolSize < writers) {
+            logger.error("pool size {} is smaller than the number of writers {}, each writer needs its own connection", poolSize, writers);
+            System.exit(1);
+        }
+        ConnectionPool pool = null;
+        try {
+            pool = new ConnectionPool(jdbcClass, jdbcUrl, dbUser, dbPassword, poolSize > 0 ? poolSize : writers);
+        } catch (ClassNotFoundException e) {
+            logger.error("JDBC driver {} not found", jdbcClass);
+            System.exit(1);
+        }
+        EventTrace trace = null;
+        try {
+            trace = new EventTrace(debug, traceSample, traceGroups);
+        } catch (KNXFormatException e) {
+            logger.error("invalid trace group address: {}", e.getMessage());
+            System.exit(1);
+        }
+
+        if (archiveDir != null && !archiveDir.isEmpty()) {
+            try {
+                archive = new ArchiveWriter(archiveDir, archiveBlockSize);
+                ScheduledExecutorService archiver = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "Archive");
+                    t.setDaemon(true);
+                    return t;
+                });
+                archiver.scheduleWithFixedDelay(archive, archiveFlush, archiveFlush, TimeUnit.SECONDS);
+                Runtime.getRuntime().addShutdownHook(new Thread(archive::close, "ArchiveClose"));
+            } catch (IOException e) {
+                logger.error("unable to setup archive in {}", archiveDir, e);
+                System.exit(1);
+            }
+        }
+
+        // with several writers the events are sharded by GA, each worker has
+        // its own ring buffer, connection and spool, so a worker whose DB
+        // connection is stuck spools on its own instead of holding up the
+        // dispatcher and with it all other workers
+        DbWriter[] dbWriters = new DbWriter[writers];
+        EventRingBuffer[] workerRings = new EventRingBuffer[writers];
+        EventSpool[] workerSpools = new EventSpool[writers];
+        for (int i = 0; i < writers; i++) {
+            if (writers == 1) {
+                dbWriters[i] = createDbWriter(pool, ring, trace);
+                dbWriters[i].setSpool(spool);
+            } else {
+                try {
+                    if (spool != null) {
+                        workerSpools[i] = new EventSpool(new File(spoolDir, "worker-" + i).getPath(),
+                                spoolSegmentSize * 1024 * 1024, spoolMaxSize * 1024 * 1024 / writers);
+                    }
+                    workerRings[i] = new EventRingBuffer(workerRingSize,
+                            EventRingBuffer.OverflowPolicy.valueOf(overflowPolicy), workerSpools[i]);
+                } catch (Exception e) {
+                    logger.error("unable to setup event buffer of writer {}", i, e);
+                    System.exit(1);
+                }
+                metrics.addQueue("worker-" + i, workerRings[i]);
+                dbWriters[i] = createDbWriter(pool, workerRings[i], trace);
+                dbWriters[i].setSpool(workerSpools[i]);
+            }
+        }
+        DbWriter dbWriter = dbWriters[0];
+        dbWriter.provisionTables();
+
+        // reload the GA file when it changes
+        if (!noReload) {
+            Thread tWatcher = new Thread(new GaFileWatcher(gaFile, characterSetGaFile, snapshot, gaTable, tables,
+                    jdbcUrl, dbUser, dbPassword), "GaFileWatcher");
+            tWatcher.setDaemon(true);
+            tWatcher.start();
+        }
 
+        // keep knx_current up to date, on its own connection
+        if (currentInterval > 0) {
+            ScheduledExecutorService current = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "CurrentState");
+                t.setDaemon(true);
+                return t;
+            });
+            current.scheduleWithFixedDelay(new CurrentStateWriter(lastValues, jdbcUrl, dbUser, dbPassword, tables),
+                    currentInterval, currentInterval, TimeUnit.SECONDS);
+        }
+
+        // setup retention, runs in the background on its own connection
+        try {
+            RetentionTask retention = new RetentionTask(jdbcUrl, dbUser, dbPassword, tables,
+                    logRetention, dataRetention, tableRetention, retentionChunk, retentionPause);
+            retention.setLogPartitioner(partitioner);
+            retention.setRollupRetention(rollupRetention);
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "Retention");
+                t.setDaemon(true);
+                return t;
+            });
+            if (partitioner != null) {
+                scheduler.scheduleWithFixedDelay(partitioner, 0, retentionInterval, TimeUnit.MINUTES);
+            }
+            scheduler.scheduleWithFixedDelay(retention, 1, retentionInterval, TimeUnit.MINUTES);
+        } catch (IllegalArgumentException e) {
+            logger.error("invalid retention configuration: {}", e.getMessage());
+            System.exit(1);
+        }
+        if (writers == 1) {
+            Thread tDBWriter = new Thread(dbWriter);
+            tDBWriter.setDaemon(true);
+            tDBWriter.setName("DBWriter");
+            tDBWriter.run();
+        } else {
+            for (int i = 0; i < writers; i++) {
+                Thread tDBWriter = new Thread(dbWriters[i]);
+                tDBWriter.setDaemon(true);
+                tDBWriter.setName("DBWriter-" + i);
+                tDBWriter.start();
+            }
+            logger.debug("{} DBWriters started", writers);
+            new ShardDispatcher(ring, spool, workerRings, workerSpools).run();
+        }
+    }
+
+    private static DbWriter createDbWriter(ConnectionPool pool, EventRingBuffer ring, EventTrace trace) {
+        DbWriter dbWriter = new DbWriter(pool, ring, gaTable, tables, batchSize, flushInterval, statementCacheSize);
+        dbWriter.setRecordingFilter(new RecordingFilter(recordAll));
+        dbWriter.setEventTrace(trace);
+        dbWriter.setLagStats(lagStats);
+        dbWriter.setMetrics(metrics);
+        dbWriter.setArchive(archive);
+        if (rollups != null && !rollups.isEmpty()) {
+            try {
+                RollupAggregator aggregator = new RollupAggregator(rollups);
+                tables.setRollupSuffixes(aggregator.getSuffixes());
+                dbWriter.setRollupWriter(new RollupWriter(aggregator, tables));
+            } catch (IllegalArgumentException e) {
+                logger.error("invalid rollup configuration: {}", e.getMessage());
+                System.exit(1);
+            }
+        }
+        return dbWriter;
     }
 
-    private static void addDP(String ga, String desc, String dpst) throws KNXFormatException {
-        StateDP dp;
-        String dptID;
-        // change DPST-1-1 to 1.001
-        String[] parts = dpst.split("-");
-
-        switch (parts[0]) {
-            case "DPT":
-                // FIXME: Hack: just use first subtype to get things going
-                dptID = String.format("%d.%03d", Integer.parseInt(parts[1]), 1);
-                dp = new StateDP(new GroupAddress(ga), desc, Integer.parseInt(parts[1]), dptID);
-                datapoints.add(dp);
-                logger.warn("applying default subtype for ga: {} desc: {} dpst: {}", ga, desc, dpst);
-                break;
-            case "DPST":
-                dptID = String.format("%d.%03d", Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
-                dp = new StateDP(new GroupAddress(ga), desc, Integer.parseInt(parts[1]), dptID);
-                datapoints.add(dp);
-                break;
-            default:
-                logger.warn("ignoring ga: {} desc: {} dpst: {}", ga, desc, dpst);
+    private static void startLoadSource(String kind, TelegramSink sink, List<LongSupplier> loadSources) {
+        Runnable source;
+        if (kind.equals("replay")) {
+            if (replayFile == null || replayFile.isEmpty()) {
+                logger.error("replay needs a capture file (-rf)");
+                System.exit(1);
+            }
+            ReplaySource replay = new ReplaySource(replayFile, replaySpeed, sink);
+            loadSources.add(replay::getEmitted);
+            source = replay;
+        } else {
+            SyntheticSource synthetic = new SyntheticSource(gaTable, loadRate, sink);
+            loadSources.add(synthetic::getEmitted);
+            source = synthetic;
         }
+        Thread t = new Thread(source, kind.equals("replay") ? "Replay" : "Synthetic");
+        t.setDaemon(true);
+        t.start();
     }
 }
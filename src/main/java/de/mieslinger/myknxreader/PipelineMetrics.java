@@ -0,0 +1,332 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters and latency histograms of the whole pipeline, from the bus to
+ * the DB commit. Everything is lock free and always recorded, it is
+ * exposed through JMX and in Prometheus text format by MetricsServer.
+ *
+ * @author mieslingert
+ */
+public class PipelineMetrics implements PipelineMetricsMBean {
+
+    private static final KNXEventEnum[] EVENT_TYPES = KNXEventEnum.values();
+    // upper bounds of the Prometheus histogram buckets in seconds
+    private static final String[] LE = {"0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05",
+        "0.1", "0.25", "0.5", "1", "2.5", "5", "10", "30", "60"};
+    private static final long[] LE_MICROS = new long[LE.length];
+
+    static {
+        for (int i = 0; i < LE.length; i++) {
+            LE_MICROS[i] = Math.round(Double.parseDouble(LE[i]) * 1000000);
+        }
+    }
+
+    private final LongAdder[] received = new LongAdder[EVENT_TYPES.length];
+    private final LongAdder unknownGa = new LongAdder();
+    private final LongAdder decodeFailures = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final LatencyHistogram busToCommit = new LatencyHistogram();
+    private final LatencyHistogram insert = new LatencyHistogram();
+    private final List<String> queueNames = new ArrayList<>();
+    private final List<EventRingBuffer> queues = new ArrayList<>();
+    private EventSpool spool;
+    private GatewayStats[] gateways = new GatewayStats[0];
+    private final static Logger logger = LoggerFactory.getLogger(PipelineMetrics.class);
+
+    public PipelineMetrics() {
+        for (int i = 0; i < received.length; i++) {
+            received[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("de.mieslinger.myknxreader:type=PipelineMetrics"));
+        } catch (Exception e) {
+            logger.warn("unable to register metrics MBean: {}", e.getMessage());
+        }
+    }
+
+    public synchronized void addQueue(String name, EventRingBuffer ring) {
+        queueNames.add(name);
+        queues.add(ring);
+    }
+
+    public void setSpool(EventSpool spool) {
+        this.spool = spool;
+    }
+
+    public void setGateways(GatewayStats[] gateways) {
+        this.gateways = gateways;
+    }
+
+    public void received(KNXEventEnum evType) {
+        received[evType.ordinal()].increment();
+    }
+
+    public void unknownGa() {
+        unknownGa.increment();
+    }
+
+    public void decodeFailure() {
+        decodeFailures.increment();
+    }
+
+    public void reconnect() {
+        reconnects.increment();
+    }
+
+    /**
+     * Called after the commit of a batch.
+     */
+    public void committed(List<KNXEvent> batch) {
+        long now = KNXEvent.nowMicros();
+        for (KNXEvent kev : batch) {
+            busToCommit.record(now - kev.getTsMicros());
+        }
+        written.add(batch.size());
+    }
+
+    /**
+     * Execution time of one insert statement, a JDBC batch or a single row.
+     */
+    public void insert(long nanos) {
+        insert.record(nanos / 1000);
+    }
+
+    @Override
+    public long getReceivedGroupWrite() {
+        return received[KNXEventEnum.groupWrite.ordinal()].sum();
+    }
+
+    @Override
+    public long getReceivedGroupReadRequest() {
+        return received[KNXEventEnum.groupReadRequest.ordinal()].sum();
+    }
+
+    @Override
+    public long getReceivedGroupReadResponse() {
+        return received[KNXEventEnum.groupReadResponse.ordinal()].sum();
+    }
+
+    @Override
+    public long getUnknownGa() {
+        return unknownGa.sum();
+    }
+
+    @Override
+    public long getDecodeFailures() {
+        return decodeFailures.sum();
+    }
+
+    @Override
+    public synchronized long getQueueDepth() {
+        long depth = 0;
+        for (EventRingBuffer ring : queues) {
+            depth += ring.size();
+        }
+        return depth;
+    }
+
+    @Override
+    public synchronized long getQueueDropped() {
+        long dropped = 0;
+        for (EventRingBuffer ring : queues) {
+            dropped += ring.getDropped();
+        }
+        return dropped;
+    }
+
+    @Override
+    public long getSpooledBytes() {
+        return spool != null ? spool.getSpooledBytes() : 0;
+    }
+
+    @Override
+    public long getWritten() {
+        return written.sum();
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    @Override
+    public long getLinkReconnects() {
+        long sum = 0;
+        for (GatewayStats g : gateways) {
+            sum += g.getReconnects();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getLinkDowntimeSeconds() {
+        long sum = 0;
+        for (GatewayStats g : gateways) {
+            sum += g.getDowntime();
+        }
+        return sum / 1000;
+    }
+
+    @Override
+    public double getBusToCommitP50() {
+        return busToCommit.getQuantile(0.5) / 1000.0;
+    }
+
+    @Override
+    public double getBusToCommitP99() {
+        return busToCommit.getQuantile(0.99) / 1000.0;
+    }
+
+    @Override
+    public double getBusToCommitMax() {
+        return busToCommit.getMax() / 1000.0;
+    }
+
+    @Override
+    public double getInsertP50() {
+        return insert.getQuantile(0.5) / 1000.0;
+    }
+
+    @Override
+    public double getInsertP99() {
+        return insert.getQuantile(0.99) / 1000.0;
+    }
+
+    @Override
+    public double getInsertMax() {
+        return insert.getMax() / 1000.0;
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text exposition format.
+     */
+    public synchronized String toPrometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        header(sb, "knx_telegrams_received_total", "counter", "group telegrams received from the bus by service");
+        for (KNXEventEnum type : EVENT_TYPES) {
+            sample(sb, "knx_telegrams_received_total", "type", type.name(), received[type.ordinal()].sum());
+        }
+        header(sb, "knx_gateway_received_total", "counter", "telegrams received per gateway, including duplicates");
+        for (GatewayStats g : gateways) {
+            sample(sb, "knx_gateway_received_total", "gateway", g.getName(), g.getReceived());
+        }
+        header(sb, "knx_gateway_duplicates_total", "counter", "telegrams dropped as duplicate of another gateway");
+        for (GatewayStats g : gateways) {
+            sample(sb, "knx_gateway_duplicates_total", "gateway", g.getName(), g.getDuplicates());
+        }
+        header(sb, "knx_gateway_link_up", "gauge", "1 if the tunnel to the gateway is open");
+        for (GatewayStats g : gateways) {
+            sample(sb, "knx_gateway_link_up", "gateway", g.getName(), g.isLinkOpen() ? 1 : 0);
+        }
+        header(sb, "knx_gateway_link_losses_total", "counter", "tunnel connections lost");
+        for (GatewayStats g : gateways) {
+            sample(sb, "knx_gateway_link_losses_total", "gateway", g.getName(), g.getLinkLosses());
+        }
+        header(sb, "knx_gateway_reconnects_total", "counter", "tunnel connections reopened after a loss");
+        for (GatewayStats g : gateways) {
+            sample(sb, "knx_gateway_reconnects_total", "gateway", g.getName(), g.getReconnects());
+        }
+        header(sb, "knx_gateway_downtime_seconds_total", "counter", "time the tunnel was down after a loss");
+        for (GatewayStats g : gateways) {
+            sample(sb, "knx_gateway_downtime_seconds_total", "gateway", g.getName(), g.getDowntime() / 1000);
+        }
+        header(sb, "knx_unknown_ga_total", "counter", "telegrams to GAs missing in the GA file");
+        sample(sb, "knx_unknown_ga_total", null, null, unknownGa.sum());
+        header(sb, "knx_decode_failures_total", "counter", "telegrams that could not be decoded for their DPT");
+        sample(sb, "knx_decode_failures_total", null, null, decodeFailures.sum());
+        header(sb, "knx_queue_depth", "gauge", "events waiting in the ring buffers");
+        for (int i = 0; i < queues.size(); i++) {
+            sample(sb, "knx_queue_depth", "queue", queueNames.get(i), queues.get(i).size());
+        }
+        header(sb, "knx_queue_capacity", "gauge", "slots of the ring buffers");
+        for (int i = 0; i < queues.size(); i++) {
+            sample(sb, "knx_queue_capacity", "queue", queueNames.get(i), queues.get(i).getCapacity());
+        }
+        header(sb, "knx_queue_dropped_total", "counter", "events dropped by a full ring buffer");
+        for (int i = 0; i < queues.size(); i++) {
+            sample(sb, "knx_queue_dropped_total", "queue", queueNames.get(i), queues.get(i).getDropped());
+        }
+        header(sb, "knx_spool_bytes", "gauge", "bytes waiting in the disk spool");
+        sample(sb, "knx_spool_bytes", null, null, getSpooledBytes());
+        header(sb, "knx_events_written_total", "counter", "events committed to the DB");
+        sample(sb, "knx_events_written_total", null, null, written.sum());
+        header(sb, "knx_db_reconnects_total", "counter", "successful reconnects to the DB");
+        sample(sb, "knx_db_reconnects_total", null, null, reconnects.sum());
+        histogram(sb, "knx_bus_to_commit_seconds", "time from receipt of a telegram to the commit of its event", busToCommit);
+        histogram(sb, "knx_insert_seconds", "execution time of one insert statement or JDBC batch", insert);
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String label, String value, long sample) {
+        sb.append(name);
+        if (label != null) {
+            sb.append('{').append(label).append("=\"").append(value.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"}");
+        }
+        sb.append(' ').append(sample).append('\n');
+    }
+
+    /**
+     * Cumulative buckets since start, Prometheus derives rates and
+     * quantiles over any window from them.
+     */
+    private static void histogram(StringBuilder sb, String name, String help, LatencyHistogram h) {
+        header(sb, name, "histogram", help);
+        long[] counts = h.getCumulativeCounts(LE_MICROS);
+        for (int i = 0; i < LE.length; i++) {
+            sb.append(name).append("_bucket{le=\"").append(LE[i]).append("\"} ").append(counts[i]).append('\n');
+        }
+        long total = counts[LE.length];
+        sb.append(name).append("_bucket{le=\"+Inf\"} ").append(total).append('\n');
+        sb.append(name).append("_sum ").append(seconds(h.getSum())).append('\n');
+        sb.append(name).append("_count ").append(total).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1000000.0);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+/**
+ * JMX view of the PipelineMetrics, latencies are in milliseconds. The
+ * percentiles cover everything recorded since start, rates and windowed
+ * quantiles come from the histograms of the Prometheus endpoint.
+ *
+ * @author mieslingert
+ */
+public interface PipelineMetricsMBean {
+
+    long getReceivedGroupWrite();
+
+    long getReceivedGroupReadRequest();
+
+    long getReceivedGroupReadResponse();
+
+    long getUnknownGa();
+
+    long getDecodeFailures();
+
+    long getQueueDepth();
+
+    long getQueueDropped();
+
+    long getSpooledBytes();
+
+    long getWritten();
+
+    long getReconnects();
+
+    long getLinkReconnects();
+
+    long getLinkDowntimeSeconds();
+
+    double getBusToCommitP50();
+
+    double getBusToCommitP99();
+
+    double getBusToCommitMax();
+
+    double getInsertP50();
+
+    double getInsertP99();
+
+    double getInsertMax();
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.util.Arrays;
+
+/**
+ * Applies the RecordingPolicy of each group address against the last
+ * recorded value, kept in memory in arrays indexed by the raw GA.
+ * <p>
+ * Not thread safe, all events have to be passed in by the DbWriter thread in
+ * the order they were received.
+ *
+ * @author mieslingert
+ */
+public class RecordingFilter {
+
+    private final boolean[] seen = new boolean[65536];
+    private final long[] lastTs = new long[65536];
+    private final double[] lastValue = new double[65536];
+    private final byte[][] lastAsdu = new byte[65536][];
+    private boolean recordAll;
+    private long accepted = 0;
+    private long suppressed = 0;
+
+    private RecordingFilter() {
+    }
+
+    /**
+     * @param recordAll ignore the policies and record every event
+     */
+    public RecordingFilter(boolean recordAll) {
+        this.recordAll = recordAll;
+    }
+
+    /**
+     * Only groupWrite telegrams of state DPTs are filtered, read requests
+     * and responses are always recorded.
+     *
+     * @return true if the decoded event has to be written to the data
+     * table, the event then becomes the new last recorded value
+     */
+    public boolean accept(KNXEvent kev) {
+        GaDescriptor desc = kev.getDescriptor();
+        RecordingPolicy policy = desc.getPolicy();
+        if (recordAll || policy.getMode() == RecordingPolicy.Mode.all || kev.getEvType() != KNXEventEnum.groupWrite
+                || RecordingPolicy.isEventType(desc.getMainNumber())) {
+            accepted++;
+            return true;
+        }
+        int ga = kev.getRawDestination();
+        long ts = kev.getTsMicros() / 1000;
+        if (seen[ga] && ts <= lastTs[ga]) {
+            // read again from the spool after a failed flush, it has been
+            // accepted before or is older than the last recorded event
+            accepted++;
+            return true;
+        }
+        if (seen[ga]) {
+            long age = ts - lastTs[ga];
+            boolean heartbeat = policy.getHeartbeatMillis() > 0 && age >= policy.getHeartbeatMillis();
+            if (!heartbeat) {
+                if (age < policy.getMinIntervalMillis() || !changed(kev, policy, ga)) {
+                    suppressed++;
+                    return false;
+                }
+            }
+        }
+        seen[ga] = true;
+        lastTs[ga] = ts;
+        lastValue[ga] = kev.getNumericValue();
+        lastAsdu[ga] = kev.getAsdu();
+        accepted++;
+        return true;
+    }
+
+    private boolean changed(KNXEvent kev, RecordingPolicy policy, int ga) {
+        if (kev.isFloat() || kev.isInteger()) {
+            if (policy.getMode() == RecordingPolicy.Mode.deadband) {
+                return policy.outsideDeadband(lastValue[ga], kev.getNumericValue());
+            }
+            return kev.getNumericValue() != lastValue[ga];
+        }
+        return !Arrays.equals(kev.getAsdu(), lastAsdu[ga]);
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getSuppressed() {
+        return suppressed;
+    }
+}
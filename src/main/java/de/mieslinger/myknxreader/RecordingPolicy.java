@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.util.Objects;
+
+/**
+ * Decides which events of a group address are written to its data table,
+ * knx_log always gets every event.
+ * <p>
+ * Policies are read from optional columns of the GA CSV. Without them every
+ * event is recorded, there are no defaults per DPT, filtering has to be
+ * enabled per GA:
+ * <pre>
+ *  9 policy        all | change | deadband
+ * 10 deadband      absolute ("0.2") or relative ("1%") threshold
+ * 11 min interval  seconds between two recorded events
+ * 12 heartbeat     minutes after which an unchanged value is recorded again
+ * </pre>
+ * Min interval and heartbeat only apply to change and deadband.
+ *
+ * @author mieslingert
+ */
+public class RecordingPolicy {
+
+    public enum Mode {
+        all, change, deadband;
+    }
+
+    /**
+     * Every event is recorded, the policy of all GAs without policy columns.
+     */
+    public static final RecordingPolicy ALL = new RecordingPolicy(Mode.all, 0, 0, 0, 0);
+
+    private final Mode mode;
+    private final double absDeadband;
+    private final double relDeadband;
+    private final long minIntervalMillis;
+    private final long heartbeatMillis;
+
+    public RecordingPolicy(Mode mode, double absDeadband, double relDeadband, long minIntervalMillis, long heartbeatMillis) {
+        this.mode = mode;
+        this.absDeadband = absDeadband;
+        this.relDeadband = relDeadband;
+        this.minIntervalMillis = minIntervalMillis;
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    /**
+     * DPTs whose telegrams are events rather than states: switch and
+     * trigger (1), dimming steps (3), scene number (17) and scene control
+     * (18). A repeated telegram is a new event, so they are never filtered.
+     */
+    public static boolean isEventType(int mainNumber) {
+        return mainNumber == 1 || mainNumber == 3 || mainNumber == 17 || mainNumber == 18;
+    }
+
+    /**
+     * Parses the policy columns of the GA CSV.
+     *
+     * @param columns the columns starting with the policy column, may be
+     * shorter than 4 or empty
+     */
+    public static RecordingPolicy parse(int mainNumber, String[] columns) {
+        if (isEventType(mainNumber)) {
+            for (int i = 0; i < 4; i++) {
+                String c = column(columns, i);
+                if (!c.isEmpty() && !(i == 0 && c.equals(Mode.all.name()))) {
+                    throw new IllegalArgumentException("DPT main number " + mainNumber + " carries events, they are always recorded");
+                }
+            }
+            return ALL;
+        }
+        Mode mode = Mode.all;
+        double abs = 0;
+        double rel = 0;
+        long minInterval = 0;
+        long heartbeat = 0;
+
+        String c = column(columns, 0);
+        if (!c.isEmpty()) {
+            try {
+                mode = Mode.valueOf(c);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("invalid recording policy: " + c);
+            }
+            if (mode == Mode.deadband && !isNumeric(mainNumber)) {
+                throw new IllegalArgumentException("deadband policy needs a numeric DPT, got main number " + mainNumber);
+            }
+            if (mode != Mode.deadband) {
+                abs = 0;
+                rel = 0;
+            }
+        }
+        c = column(columns, 1);
+        if (!c.isEmpty()) {
+            if (!isNumeric(mainNumber)) {
+                throw new IllegalArgumentException("deadband needs a numeric DPT, got main number " + mainNumber);
+            }
+            if (c.endsWith("%")) {
+                rel = Double.parseDouble(c.substring(0, c.length() - 1).trim()) / 100;
+                abs = 0;
+            } else {
+                abs = Double.parseDouble(c);
+                rel = 0;
+            }
+            mode = Mode.deadband;
+        }
+        c = column(columns, 2);
+        if (!c.isEmpty()) {
+            minInterval = Long.parseLong(c) * 1000;
+        }
+        c = column(columns, 3);
+        if (!c.isEmpty()) {
+            heartbeat = Long.parseLong(c) * 60000;
+        }
+        if (mode == Mode.all && (minInterval > 0 || heartbeat > 0)) {
+            throw new IllegalArgumentException("min interval and heartbeat need policy change or deadband");
+        }
+        return new RecordingPolicy(mode, abs, rel, minInterval, heartbeat);
+    }
+
+    private static boolean isNumeric(int mainNumber) {
+        DptDecoder.Kind kind = DptDecoder.forDatapoint(mainNumber, "").getKind();
+        return kind == DptDecoder.Kind.INTEGER || kind == DptDecoder.Kind.FLOAT;
+    }
+
+    private static String column(String[] columns, int i) {
+        return columns != null && i < columns.length && columns[i] != null ? columns[i].trim() : "";
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public double getAbsDeadband() {
+        return absDeadband;
+    }
+
+    public double getRelDeadband() {
+        return relDeadband;
+    }
+
+    public long getMinIntervalMillis() {
+        return minIntervalMillis;
+    }
+
+    public long getHeartbeatMillis() {
+        return heartbeatMillis;
+    }
+
+    /**
+     * @return true if the difference between the last recorded and the new
+     * value exceeds the deadband
+     */
+    public boolean outsideDeadband(double last, double value) {
+        double threshold = Math.max(absDeadband, relDeadband * Math.abs(last));
+        return Math.abs(value - last) > threshold;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof RecordingPolicy)) {
+            return false;
+        }
+        RecordingPolicy p = (RecordingPolicy) o;
+        return mode == p.mode && absDeadband == p.absDeadband && relDeadband == p.relDeadband
+                && minIntervalMillis == p.minIntervalMillis && heartbeatMillis == p.heartbeatMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mode, absDeadband, relDeadband, minIntervalMillis, heartbeatMillis);
+    }
+
+    @Override
+    public String toString() {
+        if (mode == Mode.all) {
+            return mode.name();
+        }
+        StringBuilder sb = new StringBuilder(mode.name());
+        if (mode == Mode.deadband) {
+            sb.append(" abs ").append(absDeadband).append(" rel ").append(relDeadband * 100).append('%');
+        }
+        if (minIntervalMillis > 0) {
+            sb.append(" min ").append(minIntervalMillis / 1000).append('s');
+        }
+        if (heartbeatMillis > 0) {
+            sb.append(" heartbeat ").append(heartbeatMillis / 60000).append("min");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays a telegram capture into a TelegramSink, with the recorded timing
+ * at the given speed factor, or as fast as possible with speed 0.
+ *
+ * @author mieslingert
+ */
+public class ReplaySource implements Runnable {
+
+    private String file;
+    private double speed;
+    private TelegramSink sink;
+    private final AtomicLong emitted = new AtomicLong();
+    private final static Logger logger = LoggerFactory.getLogger(ReplaySource.class);
+
+    private ReplaySource() {
+    }
+
+    /**
+     * @param speed 1 for the recorded rate, 10 for ten times as fast, 0 for
+     * maximum speed
+     */
+    public ReplaySource(String file, double speed, TelegramSink sink) {
+        this.file = file;
+        this.speed = speed;
+        this.sink = sink;
+    }
+
+    public long getEmitted() {
+        return emitted.get();
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        try (TelegramCapture.Reader reader = new TelegramCapture.Reader(file)) {
+            long firstTs = -1;
+            while (reader.next()) {
+                if (firstTs < 0) {
+                    firstTs = reader.getTs();
+                }
+                if (speed > 0) {
+                    long due = start + (long) ((reader.getTs() - firstTs) * 1000 / speed);
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                sink.telegram(reader.getEvType(), reader.getSrc(), reader.getDst(), reader.getAsdu());
+                emitted.incrementAndGet();
+            }
+        } catch (Exception e) {
+            logger.warn("replay of {} failed: {}", file, e.getMessage());
+        }
+        long duration = (System.nanoTime() - start) / 1000000;
+        logger.info("replay of {} finished, {} telegrams in {} ms, {} telegrams/s", file, emitted.get(), duration,
+                duration > 0 ? emitted.get() * 1000 / duration : emitted.get());
+    }
+}
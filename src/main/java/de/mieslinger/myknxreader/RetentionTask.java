@@ -0,0 +1,239 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes rows older than their table's retention period. Runs periodically
+ * on its own connection and deletes in chunks of chunkSize rows with a pause
+ * in between, so it never holds locks on a table for long.
+ * <p>
+ * Retention periods are given as a number followed by a unit: h (hours), d
+ * (days), w (weeks), M (months) or y (years), e.g. "3M" or "30d". An empty
+ * retention keeps the rows forever.
+ *
+ * @author mieslingert
+ */
+public class RetentionTask implements Runnable {
+
+    private String jdbcUrl;
+    private String user;
+    private String password;
+    private TableRegistry tables;
+    private String logRetention;
+    private String dataRetention;
+    private String rollupRetention = "";
+    private Map<String, String> tableRetention = new HashMap<>();
+    private int chunkSize;
+    private long chunkPause;
+    private LogPartitioner partitioner;
+    private Connection conn;
+    private final static Logger logger = LoggerFactory.getLogger(RetentionTask.class);
+
+    private RetentionTask() {
+    }
+
+    /**
+     * @param logRetention retention of knx_log
+     * @param dataRetention retention of the data_* tables
+     * @param tableRetention comma separated list of table=retention, overrides
+     * the other two
+     */
+    public RetentionTask(String jdbcUrl, String user, String password, TableRegistry tables,
+            String logRetention, String dataRetention, String tableRetention, int chunkSize, long chunkPause) {
+        this.jdbcUrl = jdbcUrl;
+        this.user = user;
+        this.password = password;
+        this.tables = tables;
+        this.logRetention = logRetention;
+        this.dataRetention = dataRetention;
+        this.chunkSize = chunkSize;
+        this.chunkPause = chunkPause;
+        if (tableRetention != null && !tableRetention.isEmpty()) {
+            for (String entry : tableRetention.split(",")) {
+                String[] parts = entry.trim().split("=");
+                if (parts.length == 2) {
+                    // validate now instead of failing on every run
+                    cutoff(parts[1].trim());
+                    this.tableRetention.put(parts[0].trim().toLowerCase(), parts[1].trim());
+                } else {
+                    throw new IllegalArgumentException("invalid table retention: " + entry);
+                }
+            }
+        }
+        cutoff(logRetention);
+        cutoff(dataRetention);
+        logger.info("RetentionTask instantiated, knx_log: {}, data tables: {}, overrides: {}",
+                logRetention, dataRetention, this.tableRetention);
+    }
+
+    /**
+     * Retention of the rollup tables, they are not affected by the retention
+     * of the data tables. Empty to keep them forever.
+     */
+    public void setRollupRetention(String rollupRetention) {
+        cutoff(rollupRetention);
+        this.rollupRetention = rollupRetention;
+    }
+
+    /**
+     * If set and active, knx_log is purged by dropping partitions instead.
+     */
+    public void setLogPartitioner(LogPartitioner partitioner) {
+        this.partitioner = partitioner;
+    }
+
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        long total = 0;
+        try {
+            if (conn == null || !conn.isValid(5)) {
+                conn = DbWriter.connect(jdbcUrl, user, password);
+            }
+            for (String tableName : tables.getTableNames()) {
+                String retention = retentionOf(tableName);
+                if (retention == null || retention.isEmpty()) {
+                    continue;
+                }
+                if (TableRegistry.VALUE_TABLE.equals(tableName) || TableRegistry.isValueRollupTable(tableName)) {
+                    total += purgeValues(tableName, cutoff(retention));
+                } else {
+                    total += purge(tableName, "", cutoff(retention));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("retention run failed: {}", e.getMessage());
+        }
+        logger.info("retention run removed {} rows in {} ms", total, System.currentTimeMillis() - start);
+    }
+
+    private String retentionOf(String tableName) {
+        String retention = tableRetention.get(tableName);
+        if (retention != null) {
+            return retention;
+        }
+        if ("knx_log".equals(tableName)) {
+            if (partitioner != null && partitioner.isActive()) {
+                return null;
+            }
+            return logRetention;
+        }
+        if (TableRegistry.isRollupTable(tableName)) {
+            return rollupRetention;
+        }
+        if (tableName.startsWith("data_") || TableRegistry.VALUE_TABLE.equals(tableName)) {
+            return dataRetention;
+        }
+        return null;
+    }
+
+    /**
+     * knx_value and its rollup tables have no index on ts alone, so they are
+     * purged GA by GA along their primary key.
+     */
+    private long purgeValues(String tableName, Timestamp cutoff) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        PreparedStatement ps = conn.prepareStatement("select ga_id from " + TableRegistry.GA_TABLE);
+        ResultSet rs = ps.executeQuery();
+        while (rs.next()) {
+            ids.add(rs.getInt(1));
+        }
+        rs.close();
+        ps.close();
+        long removed = 0;
+        for (int id : ids) {
+            removed += purge(tableName, "ga_id = " + id + " and ", cutoff);
+        }
+        return removed;
+    }
+
+    private long purge(String tableName, String condition, Timestamp cutoff) throws Exception {
+        long start = System.currentTimeMillis();
+        long removed = 0;
+        PreparedStatement ps = conn.prepareStatement("delete from " + tableName + " where " + condition + "ts < ? limit ?");
+        try {
+            int n;
+            do {
+                ps.setTimestamp(1, cutoff);
+                ps.setInt(2, chunkSize);
+                n = ps.executeUpdate();
+                removed += n;
+                if (n == chunkSize) {
+                    Thread.sleep(chunkPause);
+                }
+            } while (n == chunkSize);
+        } finally {
+            ps.close();
+        }
+        if (removed > 0) {
+            logger.info("removed {} rows older than {} from {} in {} ms", removed, cutoff, tableName, System.currentTimeMillis() - start);
+        }
+        return removed;
+    }
+
+    /**
+     * @return the point in time before which rows are deleted, or null for an
+     * empty retention
+     */
+    static Timestamp cutoff(String retention) {
+        if (retention == null || retention.isEmpty()) {
+            return null;
+        }
+        long n;
+        try {
+            n = Long.parseLong(retention.substring(0, retention.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid retention: " + retention);
+        }
+        LocalDateTime now = LocalDateTime.now();
+        switch (retention.charAt(retention.length() - 1)) {
+            case 'h':
+                return Timestamp.valueOf(now.minusHours(n));
+            case 'd':
+                return Timestamp.valueOf(now.minusDays(n));
+            case 'w':
+                return Timestamp.valueOf(now.minusWeeks(n));
+            case 'M':
+                return Timestamp.valueOf(now.minusMonths(n));
+            case 'y':
+                return Timestamp.valueOf(now.minusYears(n));
+            default:
+                throw new IllegalArgumentException("invalid retention unit: " + retention);
+        }
+    }
+}
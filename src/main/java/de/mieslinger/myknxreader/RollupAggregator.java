@@ -0,0 +1,269 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.util.List;
+
+/**
+ * Incremental per GA aggregates over fixed time buckets, e.g. 1 minute and 1
+ * hour. Each bucket keeps count, min, max, sum, first, last and the time
+ * weighted average, where a value is held until the next one arrives. A
+ * bucket is handed out once it is closed, either by a later event of the same
+ * GA or by closeExpired().
+ * <p>
+ * Not thread safe, used by the DbWriter thread only.
+ *
+ * @author mieslingert
+ */
+public class RollupAggregator {
+
+    /**
+     * One bucket of one GA, becomes a row of the rollup table once closed.
+     */
+    public static class Bucket {
+
+        private final String table;
+        private final int ga;
+        private final long start;
+        private final long end;
+        private final boolean hasCarry;
+        private long count = 0;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum = 0;
+        private double first;
+        private double last;
+        private long firstTs;
+        private double held;
+        private long heldSince;
+        private double integral = 0;
+        private double avg;
+
+        Bucket(String table, int ga, long start, long end, boolean hasCarry, double carry) {
+            this.table = table;
+            this.ga = ga;
+            this.start = start;
+            this.end = end;
+            this.hasCarry = hasCarry;
+            this.held = carry;
+            this.heldSince = start;
+        }
+
+        void add(long ts, double value) {
+            if (count > 0 || hasCarry) {
+                integral += held * (ts - heldSince);
+            }
+            if (count == 0) {
+                first = value;
+                firstTs = ts;
+            }
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            last = value;
+            held = value;
+            heldSince = ts;
+        }
+
+        void close() {
+            integral += held * (end - heldSince);
+            long from = hasCarry ? start : firstTs;
+            avg = end > from ? integral / (end - from) : last;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        /**
+         * @return the raw group address
+         */
+        public int getGa() {
+            return ga;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public double getFirst() {
+            return first;
+        }
+
+        public double getLast() {
+            return last;
+        }
+
+        /**
+         * @return time weighted average, valid once the bucket is closed
+         */
+        public double getAvg() {
+            return avg;
+        }
+    }
+
+    private final long[] lengths;
+    private final String[] suffixes;
+    private final Bucket[][] open;
+    private final boolean[] hasLast = new boolean[65536];
+    private final long[] lastTs = new long[65536];
+    private final double[] lastValue = new double[65536];
+    private final int[] active = new int[65536];
+    private final boolean[] isActive = new boolean[65536];
+    private int activeCount = 0;
+    private long late = 0;
+
+    /**
+     * @param spec comma separated bucket sizes, e.g. "1m,1h"
+     */
+    public RollupAggregator(String spec) {
+        String[] parts = spec.split(",");
+        lengths = new long[parts.length];
+        suffixes = new String[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String p = parts[i].trim();
+            long n;
+            try {
+                n = Long.parseLong(p.substring(0, p.length() - 1));
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("invalid rollup bucket: " + p);
+            }
+            switch (p.charAt(p.length() - 1)) {
+                case 'm':
+                    lengths[i] = n * 60000L;
+                    break;
+                case 'h':
+                    lengths[i] = n * 3600000L;
+                    break;
+                default:
+                    throw new IllegalArgumentException("invalid rollup bucket unit: " + p);
+            }
+            if (n <= 0 || (i > 0 && lengths[i] <= lengths[i - 1])) {
+                throw new IllegalArgumentException("rollup buckets have to be ascending: " + spec);
+            }
+            suffixes[i] = "_" + p;
+        }
+        open = new Bucket[parts.length][65536];
+    }
+
+    /**
+     * @return table name suffixes, e.g. "_1m", "_1h"
+     */
+    public String[] getSuffixes() {
+        return suffixes;
+    }
+
+    /**
+     * @return length of the largest bucket in ms
+     */
+    public long getMaxLength() {
+        return lengths[lengths.length - 1];
+    }
+
+    public long getLate() {
+        return late;
+    }
+
+    /**
+     * Sets the value a GA had before the first added event, without creating
+     * a bucket.
+     */
+    public void seed(int ga, long ts, double value) {
+        hasLast[ga] = true;
+        lastTs[ga] = ts;
+        lastValue[ga] = value;
+    }
+
+    /**
+     * Adds a value, buckets closed by it are added to closed.
+     *
+     * @param dataTable name of the raw data table (knx_value in narrow mode),
+     * the rollup tables are named dataTable + suffix
+     */
+    public void add(int ga, String dataTable, long ts, double value, List<Bucket> closed) {
+        if (hasLast[ga] && ts < lastTs[ga]) {
+            late++;
+            return;
+        }
+        for (int i = 0; i < lengths.length; i++) {
+            long start = ts - Math.floorMod(ts, lengths[i]);
+            Bucket b = open[i][ga];
+            if (b != null && start >= b.end) {
+                b.close();
+                closed.add(b);
+                b = null;
+            }
+            if (b == null) {
+                b = new Bucket(dataTable + suffixes[i], ga, start, start + lengths[i], hasLast[ga], lastValue[ga]);
+                open[i][ga] = b;
+            }
+            b.add(ts, value);
+        }
+        hasLast[ga] = true;
+        lastTs[ga] = ts;
+        lastValue[ga] = value;
+        if (!isActive[ga]) {
+            isActive[ga] = true;
+            active[activeCount++] = ga;
+        }
+    }
+
+    /**
+     * Closes all buckets that end at or before watermark.
+     */
+    public void closeExpired(long watermark, List<Bucket> closed) {
+        for (int a = 0; a < activeCount; a++) {
+            int ga = active[a];
+            for (int i = 0; i < lengths.length; i++) {
+                Bucket b = open[i][ga];
+                if (b != null && b.end <= watermark) {
+                    b.close();
+                    closed.add(b);
+                    open[i][ga] = null;
+                }
+            }
+        }
+    }
+}
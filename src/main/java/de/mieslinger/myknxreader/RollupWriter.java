@@ -0,0 +1,296 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Feeds every received value of the GAs with a data table into a
+ * RollupAggregator, whether the RecordingPolicy writes it to the data table
+ * or not, and upserts closed buckets into the rollup tables (data table
+ * name + suffix). In narrow mode the rollups of all GAs go to knx_value +
+ * suffix, keyed by GA id and ts.
+ * <p>
+ * After a restart the open buckets of a GA are rebuilt from its data table
+ * (its rows of knx_value in narrow mode) when its first event arrives, so
+ * rollups stay exact for GAs recorded with policy all, for filtered GAs the
+ * rebuilt part only sees the recorded values. The last bucket of the previous run is rebuilt as well
+ * if it has never been written.
+ * <p>
+ * Runs on the connection of the DbWriter. The events are aggregated before
+ * the batch transaction starts, the closed buckets are upserted as JDBC
+ * batches inside of it, with the statements kept in the StatementCache of
+ * the DbWriter.
+ *
+ * @author mieslingert
+ */
+public class RollupWriter {
+
+    private RollupAggregator aggregator;
+    private TableRegistry tables;
+    private StatementCache statements;
+    private final boolean[] recovered = new boolean[65536];
+    // newest event added per GA, in microseconds
+    private final long[] lastMicros = new long[65536];
+    // id in knx_ga per GA, narrow mode only
+    private final int[] gaIds = new int[65536];
+    private final List<RollupAggregator.Bucket> closed = new ArrayList<>();
+    // buckets at the head of closed sent with write(), not yet committed
+    private int uncommitted = 0;
+    private long rowsWritten = 0;
+    private final static Logger logger = LoggerFactory.getLogger(RollupWriter.class);
+
+    private RollupWriter() {
+    }
+
+    public RollupWriter(RollupAggregator aggregator, TableRegistry tables) {
+        this.aggregator = aggregator;
+        this.tables = tables;
+    }
+
+    /**
+     * Statements of the connection the rollups are written on.
+     */
+    public void setStatements(StatementCache statements) {
+        this.statements = statements;
+    }
+
+    /**
+     * Adds the events of a batch before the recording filter, called before
+     * its transaction is started because missing rollup tables are created
+     * here. Events not newer than the last one added for their GA are
+     * skipped, so a batch replayed from the spool is not counted twice.
+     */
+    public void update(Connection conn, List<KNXEvent> batch) {
+        for (KNXEvent kev : batch) {
+            GaDescriptor desc = kev.getDescriptor();
+            if (desc.getDataTable() == null || !(kev.isFloat() || kev.isInteger())) {
+                continue;
+            }
+            int ga = kev.getRawDestination();
+            if (kev.getTsMicros() <= lastMicros[ga]) {
+                // replayed from the spool after a failed flush, the batch
+                // was aggregated before
+                continue;
+            }
+            if (tables.isNarrow() && tables.gaId(desc) < 0) {
+                // not written to knx_value either
+                continue;
+            }
+            lastMicros[ga] = kev.getTsMicros();
+            long ts = kev.getTsMicros() / 1000;
+            String base = tables.rollupBase(desc);
+            if (!recovered[ga]) {
+                recovered[ga] = true;
+                gaIds[ga] = tables.gaId(desc);
+                for (String suffix : aggregator.getSuffixes()) {
+                    if (!tables.contains(base + suffix)) {
+                        tables.ensureRollupTable(conn, base + suffix);
+                    }
+                }
+                recover(conn, ga, desc, ts);
+            }
+            aggregator.add(ga, base, ts, kev.getNumericValue(), closed);
+        }
+    }
+
+    /**
+     * Closes all buckets that end at or before watermark (ms), they are
+     * written with the next write().
+     */
+    public void closeExpired(long watermark) {
+        aggregator.closeExpired(watermark, closed);
+    }
+
+    /**
+     * Upserts the closed buckets, one JDBC batch per rollup table. Runs in
+     * the transaction of the caller, which has to call committed() once the
+     * transaction is committed or rolledBack() if it is not. Until then the
+     * buckets are kept and written again with the next call.
+     */
+    public void write(Connection conn) throws Exception {
+        uncommitted = 0;
+        if (closed.isEmpty()) {
+            return;
+        }
+        Map<String, PreparedStatement> used = new HashMap<>();
+        try {
+            for (RollupAggregator.Bucket b : closed) {
+                PreparedStatement ps = used.get(b.getTable());
+                if (ps == null) {
+                    ps = statement(conn, b.getTable());
+                    used.put(b.getTable(), ps);
+                }
+                int i = 1;
+                if (TableRegistry.isValueRollupTable(b.getTable())) {
+                    ps.setInt(i++, gaIds[b.getGa()]);
+                }
+                ps.setTimestamp(i++, new Timestamp(b.getStart()));
+                ps.setLong(i++, b.getCount());
+                ps.setDouble(i++, b.getMin());
+                ps.setDouble(i++, b.getMax());
+                ps.setDouble(i++, b.getSum());
+                ps.setDouble(i++, b.getFirst());
+                ps.setDouble(i++, b.getLast());
+                ps.setDouble(i++, b.getAvg());
+                ps.addBatch();
+            }
+            for (PreparedStatement ps : used.values()) {
+                ps.executeBatch();
+            }
+        } finally {
+            for (PreparedStatement ps : used.values()) {
+                try {
+                    ps.clearBatch();
+                } catch (Exception ex) {
+                    // statement is unusable anyway
+                }
+            }
+            statements.closeEvicted();
+        }
+        uncommitted = closed.size();
+    }
+
+    /**
+     * The transaction of the last write() has been committed.
+     */
+    public void committed() {
+        if (uncommitted == 0) {
+            return;
+        }
+        rowsWritten += uncommitted;
+        logger.debug("wrote {} rollup rows", uncommitted);
+        closed.subList(0, uncommitted).clear();
+        uncommitted = 0;
+    }
+
+    /**
+     * The transaction of the last write() has been rolled back, its buckets
+     * go out with the next write().
+     */
+    public void rolledBack() {
+        uncommitted = 0;
+    }
+
+    private PreparedStatement statement(Connection conn, String table) throws Exception {
+        PreparedStatement ps = statements.get(table);
+        if (ps == null) {
+            boolean keyed = TableRegistry.isValueRollupTable(table);
+            ps = conn.prepareStatement("insert into " + table
+                    + (keyed ? " (ga_id, ts," : " (ts,")
+                    + " cnt, val_min, val_max, val_sum, val_first, val_last, val_avg) values ("
+                    + (keyed ? "?," : "") + "?,?,?,?,?,?,?,?)"
+                    + " on duplicate key update cnt = values(cnt), val_min = values(val_min), val_max = values(val_max),"
+                    + " val_sum = values(val_sum), val_first = values(val_first), val_last = values(val_last), val_avg = values(val_avg)");
+            statements.put(table, ps);
+        }
+        return ps;
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    private void recover(Connection conn, int ga, GaDescriptor desc, long ts) {
+        String dataTable = desc.getDataTable();
+        String base = tables.rollupBase(desc);
+        String source = tables.valueSource(desc);
+        long length = aggregator.getMaxLength();
+        long replayFrom = ts - Math.floorMod(ts, length);
+        String topTable = base + aggregator.getSuffixes()[aggregator.getSuffixes().length - 1];
+        try {
+            // last bucket of the previous run, rebuild it if it was never closed
+            long lastBefore = lastTsBefore(conn, source, replayFrom);
+            if (lastBefore >= 0) {
+                long prevStart = lastBefore - Math.floorMod(lastBefore, length);
+                if (!rowExists(conn, topTable, gaIds[ga], prevStart)) {
+                    replayFrom = prevStart;
+                }
+            }
+
+            int replayed = 0;
+            PreparedStatement ps = conn.prepareStatement("select ts, value from " + source + " where ts < ? order by ts desc limit 1");
+            ps.setTimestamp(1, new Timestamp(replayFrom));
+            ResultSet rs = ps.executeQuery();
+            if (rs.next()) {
+                aggregator.seed(ga, rs.getTimestamp(1).getTime(), rs.getDouble(2));
+            }
+            rs.close();
+            ps.close();
+
+            ps = conn.prepareStatement("select ts, value from " + source + " where ts >= ? and ts < ? order by ts");
+            ps.setTimestamp(1, new Timestamp(replayFrom));
+            ps.setTimestamp(2, new Timestamp(ts));
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                aggregator.add(ga, base, rs.getTimestamp(1).getTime(), rs.getDouble(2), closed);
+                replayed++;
+            }
+            rs.close();
+            ps.close();
+            if (replayed > 0) {
+                logger.info("recovered rollups of {} from {} rows since {}", dataTable, replayed, new Timestamp(replayFrom));
+            }
+        } catch (Exception e) {
+            logger.warn("unable to recover rollups of {}: {}", dataTable, e.getMessage());
+        }
+    }
+
+    private long lastTsBefore(Connection conn, String source, long ts) throws Exception {
+        PreparedStatement ps = conn.prepareStatement("select max(ts) from " + source + " where ts < ?");
+        ps.setTimestamp(1, new Timestamp(ts));
+        ResultSet rs = ps.executeQuery();
+        long result = -1;
+        if (rs.next() && rs.getTimestamp(1) != null) {
+            result = rs.getTimestamp(1).getTime();
+        }
+        rs.close();
+        ps.close();
+        return result;
+    }
+
+    private boolean rowExists(Connection conn, String table, int gaId, long ts) throws Exception {
+        if (!tables.contains(table)) {
+            return false;
+        }
+        boolean keyed = TableRegistry.isValueRollupTable(table);
+        PreparedStatement ps = conn.prepareStatement("select 1 from " + table + " where "
+                + (keyed ? "ga_id = " + gaId + " and " : "") + "ts = ?");
+        ps.setTimestamp(1, new Timestamp(ts));
+        ResultSet rs = ps.executeQuery();
+        boolean exists = rs.next();
+        rs.close();
+        ps.close();
+        return exists;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Distributes the events of the main ring buffer (and the spool, if the ring
+ * buffer overflowed) to the rings of several DbWriter workers. The worker is
+ * chosen by a hash of the destination GA, so all events of a GA are written
+ * by the same worker in the order they were received.
+ * <p>
+ * The worker rings use the configured overflow policy, with spill a full
+ * worker ring goes to the spool of that worker, so a slow worker doesn't
+ * hold up the others.
+ * <p>
+ * Events spilled to the main spool are moved to the spools of their workers
+ * and only acknowledged in the main spool once they are on disk there. The
+ * workers acknowledge them after the DB commit.
+ *
+ * @author mieslingert
+ */
+public class ShardDispatcher implements Runnable {
+
+    private EventRingBuffer ring;
+    private EventSpool spool;
+    private EventRingBuffer[] workers;
+    private EventSpool[] workerSpools;
+    private boolean keepOnRunning = true;
+    private final static Logger logger = LoggerFactory.getLogger(ShardDispatcher.class);
+
+    private ShardDispatcher() {
+    }
+
+    /**
+     * @param workerSpools spool of each worker, needed if spool is set
+     */
+    public ShardDispatcher(EventRingBuffer ring, EventSpool spool, EventRingBuffer[] workers, EventSpool[] workerSpools) {
+        this.ring = ring;
+        this.spool = spool;
+        this.workers = workers;
+        this.workerSpools = workerSpools;
+        logger.info("ShardDispatcher for {} workers", workers.length);
+    }
+
+    /**
+     * @return the worker a GA is assigned to
+     */
+    public static int shardOf(int rawGa, int shards) {
+        int h = rawGa * 0x9e3779b1;
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % shards;
+    }
+
+    @Override
+    public void run() {
+        while (keepOnRunning) {
+            try {
+                KNXEvent kev = ring.poll();
+                if (kev != null) {
+                    dispatch(kev);
+                    continue;
+                }
+                // the producer only appends to the spool once it is in use,
+                // so it is read after the ring buffer is empty
+                if (spool != null && !spool.isEmpty()) {
+                    List<KNXEvent> spooled = spool.read(1000);
+                    boolean[] touched = new boolean[workers.length];
+                    for (KNXEvent s : spooled) {
+                        int w = shardOf(s.getRawDestination(), workers.length);
+                        workerSpools[w].append(s);
+                        touched[w] = true;
+                    }
+                    for (int w = 0; w < workers.length; w++) {
+                        if (touched[w]) {
+                            workerSpools[w].sync();
+                        }
+                    }
+                    spool.ack();
+                    continue;
+                }
+                ring.await(1000);
+            } catch (Exception e) {
+                logger.warn("ShardDispatcher Exception: ", e);
+                if (spool != null) {
+                    try {
+                        // read again, events already moved are written twice
+                        // rather than lost
+                        spool.rewind();
+                    } catch (Exception ex) {
+                        logger.warn("unable to rewind spool: {}", ex.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private void dispatch(KNXEvent kev) {
+        EventRingBuffer worker = workers[shardOf(kev.getRawDestination(), workers.length)];
+        worker.offer(kev.getEvType(), kev.getRawSourceAddr(), kev.getRawDestination(), kev.getTsMicros(), kev.getAsdu());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LRU cache of long lived prepared statements, keyed by the table they write
+ * to. Statements pushed out of the cache are not closed right away because
+ * they might still have a pending batch, call closeEvicted() once the batch
+ * has been executed.
+ * <p>
+ * Not thread safe, every DbWriter has its own cache for its own connection.
+ *
+ * @author mieslingert
+ */
+public class StatementCache {
+
+    private int maxSize;
+    private LinkedHashMap<String, PreparedStatement> statements;
+    private final List<PreparedStatement> evicted = new ArrayList<>();
+    private long hits = 0;
+    private long misses = 0;
+    private final static Logger logger = LoggerFactory.getLogger(StatementCache.class);
+
+    private StatementCache() {
+    }
+
+    public StatementCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    evicted.add(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cached statement for the table or null
+     */
+    public PreparedStatement get(String tableName) {
+        PreparedStatement ps = statements.get(tableName);
+        if (ps == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return ps;
+    }
+
+    public void put(String tableName, PreparedStatement ps) {
+        statements.put(tableName, ps);
+    }
+
+    public void closeEvicted() {
+        for (PreparedStatement ps : evicted) {
+            close(ps);
+        }
+        evicted.clear();
+    }
+
+    /**
+     * Closes all statements, used when the connection has been replaced.
+     */
+    public void invalidate() {
+        for (PreparedStatement ps : statements.values()) {
+            close(ps);
+        }
+        statements.clear();
+        closeEvicted();
+        logger.info("statement cache invalidated, {} hits, {} misses so far", hits, misses);
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    private void close(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (Exception e) {
+            // connection is most likely gone already
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates group writes for the persisted GAs of the GA file at a fixed
+ * total rate, for load tests without a bus.
+ * <p>
+ * Every GA gets values that look like the real thing for its DPT: switches
+ * toggle, temperatures and percentages wander around, meters count up.
+ * The GA is picked at random for every telegram.
+ *
+ * @author mieslingert
+ */
+public class SyntheticSource implements Runnable {
+
+    private GaDescriptor[] descriptors;
+    private double[] values;
+    private int rate;
+    private TelegramSink sink;
+    private final Random random = new Random();
+    private final AtomicLong emitted = new AtomicLong();
+    private final static Logger logger = LoggerFactory.getLogger(SyntheticSource.class);
+
+    private SyntheticSource() {
+    }
+
+    /**
+     * @param rate telegrams per second over all GAs
+     */
+    public SyntheticSource(GaTable gaTable, int rate, TelegramSink sink) {
+        List<GaDescriptor> persisted = new ArrayList<>();
+        for (GaDescriptor desc : gaTable.getDescriptors()) {
+            if (desc.isPersist()) {
+                persisted.add(desc);
+            }
+        }
+        this.descriptors = persisted.toArray(new GaDescriptor[0]);
+        this.values = new double[descriptors.length];
+        for (int i = 0; i < descriptors.length; i++) {
+            values[i] = initialValue(descriptors[i].getMainNumber());
+        }
+        this.rate = rate;
+        this.sink = sink;
+    }
+
+    public long getEmitted() {
+        return emitted.get();
+    }
+
+    @Override
+    public void run() {
+        if (descriptors.length == 0 || rate <= 0) {
+            logger.warn("no GAs to generate telegrams for");
+            return;
+        }
+        logger.info("generating {} telegrams/s for {} GAs", rate, descriptors.length);
+        // telegrams are sent in 1 ms ticks, fractions are carried over
+        long tick = System.nanoTime();
+        double due = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            due += rate / 1000.0;
+            while (due >= 1) {
+                int i = random.nextInt(descriptors.length);
+                sink.telegram(KNXEventEnum.groupWrite, 0x1101 + i % 250, descriptors[i].getRawAddress(), nextAsdu(i));
+                emitted.incrementAndGet();
+                due--;
+            }
+            tick += 1000000;
+            long wait;
+            while ((wait = tick - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    private static double initialValue(int mainNumber) {
+        switch (mainNumber) {
+            case 5:
+                return 128;
+            case 9:
+                return 21.0;
+            case 14:
+                return 230.0;
+            default:
+                return 0;
+        }
+    }
+
+    private byte[] nextAsdu(int i) {
+        double v = values[i];
+        byte[] asdu;
+        switch (descriptors[i].getMainNumber()) {
+            case 1:
+                v = v == 0 ? 1 : 0;
+                asdu = new byte[]{(byte) v};
+                break;
+            case 3:
+                asdu = new byte[]{(byte) random.nextInt(16)};
+                break;
+            case 5:
+                v = Math.max(0, Math.min(255, v + random.nextInt(11) - 5));
+                asdu = new byte[]{(byte) v};
+                break;
+            case 6:
+                v = Math.max(-128, Math.min(127, v + random.nextInt(5) - 2));
+                asdu = new byte[]{(byte) v};
+                break;
+            case 7:
+                v = ((long) v + 1 + random.nextInt(10)) & 0xffff;
+                asdu = new byte[]{(byte) ((long) v >> 8), (byte) v};
+                break;
+            case 8:
+                v = Math.max(-32768, Math.min(32767, v + random.nextInt(201) - 100));
+                asdu = new byte[]{(byte) ((long) v >> 8), (byte) v};
+                break;
+            case 9:
+                v = Math.max(-30, Math.min(60, v + random.nextGaussian() * 0.1));
+                int raw = encodeFloat16(v);
+                asdu = new byte[]{(byte) (raw >> 8), (byte) raw};
+                break;
+            case 10:
+                LocalDateTime time = LocalDateTime.now();
+                asdu = new byte[]{(byte) (time.getDayOfWeek().getValue() << 5 | time.getHour()),
+                    (byte) time.getMinute(), (byte) time.getSecond()};
+                break;
+            case 11:
+                LocalDateTime date = LocalDateTime.now();
+                asdu = new byte[]{(byte) date.getDayOfMonth(), (byte) date.getMonthValue(), (byte) (date.getYear() % 100)};
+                break;
+            case 12:
+            case 13:
+                v = ((long) v + 1 + random.nextInt(100)) & 0x7fffffffL;
+                asdu = int32((int) (long) v);
+                break;
+            case 14:
+                v = v + random.nextGaussian();
+                asdu = int32(Float.floatToIntBits((float) v));
+                break;
+            case 16:
+                asdu = new byte[14];
+                byte[] text = ("load " + emitted.get() % 100000).getBytes(StandardCharsets.ISO_8859_1);
+                System.arraycopy(text, 0, asdu, 0, Math.min(text.length, asdu.length));
+                break;
+            case 17:
+                asdu = new byte[]{(byte) random.nextInt(64)};
+                break;
+            default:
+                asdu = new byte[]{(byte) random.nextInt(256)};
+        }
+        values[i] = v;
+        return asdu;
+    }
+
+    private static byte[] int32(int v) {
+        return new byte[]{(byte) (v >> 24), (byte) (v >> 16), (byte) (v >> 8), (byte) v};
+    }
+
+    /**
+     * Encodes a value as DPT 9 2-byte float, the counterpart of the DPT 9
+     * DptDecoder.
+     */
+    static int encodeFloat16(double value) {
+        long mantissa = Math.round(value * 100);
+        int exponent = 0;
+        while (mantissa < -2048 || mantissa > 2047) {
+            if (exponent == 15) {
+                // out of range, DPT 9 has 0x7fff for invalid data
+                return 0x7fff;
+            }
+            mantissa = Math.round(value * 100 / (1 << ++exponent));
+        }
+        return (mantissa < 0 ? 0x8000 : 0) | exponent << 11 | (int) (mantissa & 0x07ff);
+    }
+}
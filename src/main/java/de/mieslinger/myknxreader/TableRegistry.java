@@ -0,0 +1,525 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tuwien.auto.calimero.GroupAddress;
+
+/**
+ * Knows which tables exist in the database. The list is loaded once from
+ * information_schema, missing tables are created at startup, so writing an
+ * event never needs a query to find out if its table is there.
+ * <p>
+ * In narrow mode the numeric values of all GAs go to the single table
+ * knx_value, keyed by a small GA id and ts, instead of one data table per
+ * GA. The ids are assigned in the dimension table knx_ga and cached here.
+ * The rollups of all GAs go to knx_value + suffix, keyed by GA id and ts as
+ * well.
+ *
+ * @author mieslingert
+ */
+public class TableRegistry {
+
+    private final Set<String> tables = ConcurrentHashMap.newKeySet();
+    private LogPartitioner partitioner;
+    private String[] rollupSuffixes = new String[0];
+    private boolean narrow = false;
+    // GA id by descriptor, descriptors don't override equals
+    private final Map<GaDescriptor, Integer> gaIds = new ConcurrentHashMap<>();
+    // GA id by address and DPT as stored in knx_ga
+    private final Map<String, Integer> gaDictionary = new ConcurrentHashMap<>();
+    public static final String VALUE_TABLE = "knx_value";
+    public static final String GA_TABLE = "knx_ga";
+    public static final String UNKNOWN_TABLE = "knx_unknown";
+    public static final String CURRENT_TABLE = "knx_current";
+    private final static Logger logger = LoggerFactory.getLogger(TableRegistry.class);
+
+    public TableRegistry() {
+    }
+
+    /**
+     * If set, a newly created knx_log is partitioned by ts.
+     */
+    public void setLogPartitioner(LogPartitioner partitioner) {
+        this.partitioner = partitioner;
+    }
+
+    /**
+     * If set, the rollup tables of every data table are provisioned as well.
+     */
+    public void setRollupSuffixes(String[] rollupSuffixes) {
+        this.rollupSuffixes = rollupSuffixes;
+    }
+
+    /**
+     * Write the numeric values to knx_value instead of the per GA data
+     * tables.
+     */
+    public void setNarrow(boolean narrow) {
+        this.narrow = narrow;
+    }
+
+    public boolean isNarrow() {
+        return narrow;
+    }
+
+    /**
+     * Loads the names of all tables of the current database.
+     */
+    public void load(Connection conn) throws Exception {
+        tables.clear();
+        PreparedStatement ps = conn.prepareStatement("select table_name from information_schema.tables where table_schema = database()");
+        ResultSet rs = ps.executeQuery();
+        while (rs.next()) {
+            tables.add(rs.getString(1).toLowerCase());
+        }
+        rs.close();
+        ps.close();
+        logger.info("found {} existing tables", tables.size());
+    }
+
+    /**
+     * Creates knx_log and the data tables of all numeric datapoints that
+     * don't exist yet.
+     */
+    public void provision(Connection conn, Collection<GaDescriptor> descriptors) {
+        long start = System.currentTimeMillis();
+        int created = 0;
+        if (ensureLogTable(conn)) {
+            created++;
+        }
+        if (narrow) {
+            if (ensureGaTable(conn)) {
+                created++;
+            }
+            if (ensureValueTable(conn)) {
+                created++;
+            }
+            try {
+                loadGaIds(conn);
+            } catch (Exception e) {
+                logger.warn("unable to load GA ids from knx_ga: {}", e.getMessage());
+            }
+            for (String suffix : rollupSuffixes) {
+                if (ensureRollupTable(conn, VALUE_TABLE + suffix)) {
+                    created++;
+                }
+            }
+        }
+        for (GaDescriptor desc : descriptors) {
+            String tableName = desc.getDataTable();
+            if (tableName != null && narrow) {
+                ensureGaId(conn, desc);
+            } else if (tableName != null && ensureDataTable(conn, tableName, desc.isFloat())) {
+                created++;
+            }
+            if (tableName != null && !narrow) {
+                for (String suffix : rollupSuffixes) {
+                    if (ensureRollupTable(conn, tableName + suffix)) {
+                        created++;
+                    }
+                }
+            }
+        }
+        logger.info("schema provisioning created {} tables in {} ms", created, System.currentTimeMillis() - start);
+    }
+
+    public boolean contains(String tableName) {
+        return tables.contains(tableName);
+    }
+
+    /**
+     * @return a snapshot of all known table names
+     */
+    public List<String> getTableNames() {
+        return new ArrayList<>(tables);
+    }
+
+    /**
+     * @return true if the table had to be created
+     */
+    public boolean ensureLogTable(Connection conn) {
+        if (tables.contains("knx_log")) {
+            return false;
+        }
+        logger.info("Table knx_log does not exist, creating");
+        try {
+            PreparedStatement createTable = conn.prepareStatement("create table if not exists knx_log ("
+                    + "ts timestamp(6) NOT NULL DEFAULT current_timestamp(6),"
+                    + "src_addr varchar(16) not null,"
+                    + "dst_addr varchar(16) not null,"
+                    + "dst_desc varchar(400),"
+                    + "dpt varchar(10) not null,"
+                    + "value varchar(40) not null,"
+                    + "key (ts),"
+                    + "key (src_addr),"
+                    + "key (dst_addr)"
+                    + ")"
+                    + (partitioner != null ? partitioner.partitionClause() : ""));
+            createTable.executeUpdate();
+            createTable.close();
+            tables.add("knx_log");
+            logger.info("created table knx_log");
+            return true;
+        } catch (Exception exc) {
+            logger.warn("unexpected exception during create table knx_log: {}", exc.getMessage(), exc);
+            return false;
+        }
+    }
+
+    /**
+     * Integer values are stored as bigint, DPT 12 is 32 bit unsigned.
+     *
+     * @return true if the table had to be created
+     */
+    public boolean ensureDataTable(Connection conn, String tableName, boolean isFloat) {
+        if (tables.contains(tableName)) {
+            return false;
+        }
+        logger.info("Table {} does not exist, creating", tableName);
+        try {
+            PreparedStatement createTable = conn.prepareStatement("create table if not exists " + tableName + " ("
+                    + "ts timestamp(6) NOT NULL DEFAULT current_timestamp(6),"
+                    + (isFloat ? "value double not null," : "value bigint not null,")
+                    + "primary key (ts)"
+                    + ")");
+            createTable.executeUpdate();
+            createTable.close();
+            tables.add(tableName);
+            logger.info("created table {}", tableName);
+            return true;
+        } catch (Exception exc) {
+            logger.warn("unexpected exception during create table {}: {}", tableName, exc.getMessage(), exc);
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the table had to be created
+     */
+    public boolean ensureGaTable(Connection conn) {
+        if (tables.contains(GA_TABLE)) {
+            return false;
+        }
+        logger.info("Table {} does not exist, creating", GA_TABLE);
+        try {
+            PreparedStatement createTable = conn.prepareStatement("create table if not exists " + GA_TABLE + " ("
+                    + "ga_id smallint unsigned not null auto_increment,"
+                    + "address varchar(16) not null,"
+                    + "dpt varchar(10) not null,"
+                    + "description varchar(400),"
+                    + "primary key (ga_id),"
+                    + "unique key (address, dpt)"
+                    + ")");
+            createTable.executeUpdate();
+            createTable.close();
+            tables.add(GA_TABLE);
+            logger.info("created table {}", GA_TABLE);
+            return true;
+        } catch (Exception exc) {
+            logger.warn("unexpected exception during create table {}: {}", GA_TABLE, exc.getMessage(), exc);
+            return false;
+        }
+    }
+
+    /**
+     * Creates knx_current, the last value of every GA with the columns of
+     * knx_log.
+     *
+     * @return true if the table had to be created
+     */
+    public boolean ensureCurrentTable(Connection conn) {
+        if (tables.contains(CURRENT_TABLE)) {
+            return false;
+        }
+        logger.info("Table {} does not exist, creating", CURRENT_TABLE);
+        try {
+            PreparedStatement createTable = conn.prepareStatement("create table if not exists " + CURRENT_TABLE + " ("
+                    + "dst_addr varchar(16) not null,"
+                    + "ts timestamp(6) not null,"
+                    + "src_addr varchar(16) not null,"
+                    + "dst_desc varchar(400),"
+                    + "dpt varchar(10) not null,"
+                    + "value varchar(40) not null,"
+                    + "primary key (dst_addr)"
+                    + ")");
+            createTable.executeUpdate();
+            createTable.close();
+            tables.add(CURRENT_TABLE);
+            logger.info("created table {}", CURRENT_TABLE);
+            return true;
+        } catch (Exception exc) {
+            logger.warn("unexpected exception during create table {}: {}", CURRENT_TABLE, exc.getMessage(), exc);
+            return false;
+        }
+    }
+
+    /**
+     * Creates knx_unknown, one row per GA missing in the GA file.
+     *
+     * @return true if the table had to be created
+     */
+    public boolean ensureUnknownTable(Connection conn) {
+        if (tables.contains(UNKNOWN_TABLE)) {
+            return false;
+        }
+        logger.info("Table {} does not exist, creating", UNKNOWN_TABLE);
+        try {
+            PreparedStatement createTable = conn.prepareStatement("create table if not exists " + UNKNOWN_TABLE + " ("
+                    + "address varchar(16) not null,"
+                    + "first_seen timestamp(6) not null,"
+                    + "last_seen timestamp(6) not null,"
+                    + "count bigint unsigned not null,"
+                    + "last_src varchar(16) not null,"
+                    + "last_asdu varbinary(255),"
+                    + "primary key (address)"
+                    + ")");
+            createTable.executeUpdate();
+            createTable.close();
+            tables.add(UNKNOWN_TABLE);
+            logger.info("created table {}", UNKNOWN_TABLE);
+            return true;
+        } catch (Exception exc) {
+            logger.warn("unexpected exception during create table {}: {}", UNKNOWN_TABLE, exc.getMessage(), exc);
+            return false;
+        }
+    }
+
+    /**
+     * Creates knx_value, the primary key is the clustered index of InnoDB,
+     * so the rows of one GA are stored together in ts order.
+     *
+     * @return true if the table had to be created
+     */
+    public boolean ensureValueTable(Connection conn) {
+        if (tables.contains(VALUE_TABLE)) {
+            return false;
+        }
+        logger.info("Table {} does not exist, creating", VALUE_TABLE);
+        try {
+            PreparedStatement createTable = conn.prepareStatement("create table if not exists " + VALUE_TABLE + " ("
+                    + "ga_id smallint unsigned not null,"
+                    + "ts timestamp(6) not null,"
+                    + "value_double double,"
+                    + "value_long bigint,"
+                    + "primary key (ga_id, ts)"
+                    + ")");
+            createTable.executeUpdate();
+            createTable.close();
+            tables.add(VALUE_TABLE);
+            logger.info("created table {}", VALUE_TABLE);
+            return true;
+        } catch (Exception exc) {
+            logger.warn("unexpected exception during create table {}: {}", VALUE_TABLE, exc.getMessage(), exc);
+            return false;
+        }
+    }
+
+    /**
+     * Loads the GA ids assigned so far from knx_ga.
+     */
+    public void loadGaIds(Connection conn) throws Exception {
+        PreparedStatement ps = conn.prepareStatement("select ga_id, address, dpt from " + GA_TABLE);
+        ResultSet rs = ps.executeQuery();
+        while (rs.next()) {
+            gaDictionary.put(rs.getString(2) + " " + rs.getString(3), rs.getInt(1));
+        }
+        rs.close();
+        ps.close();
+        logger.info("loaded {} GA ids", gaDictionary.size());
+    }
+
+    /**
+     * @return the id of the GA in knx_ga, -1 if it has none yet
+     */
+    public int gaId(GaDescriptor desc) {
+        Integer id = gaIds.get(desc);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Returns the id of the GA in knx_ga, assigns one if needed.
+     *
+     * @return the id, -1 if it could not be assigned
+     */
+    public synchronized int ensureGaId(Connection conn, GaDescriptor desc) {
+        Integer id = gaIds.get(desc);
+        if (id != null) {
+            return id;
+        }
+        String key = desc.getAddressString() + " " + desc.getDpt();
+        id = gaDictionary.get(key);
+        if (id == null) {
+            try {
+                PreparedStatement ps = conn.prepareStatement("insert into " + GA_TABLE + " (address, dpt, description) values (?,?,?)"
+                        + " on duplicate key update description = values(description)");
+                ps.setString(1, desc.getAddressString());
+                ps.setString(2, desc.getDpt());
+                ps.setString(3, desc.getName());
+                ps.executeUpdate();
+                ps.close();
+                ps = conn.prepareStatement("select ga_id from " + GA_TABLE + " where address = ? and dpt = ?");
+                ps.setString(1, desc.getAddressString());
+                ps.setString(2, desc.getDpt());
+                ResultSet rs = ps.executeQuery();
+                if (rs.next()) {
+                    id = rs.getInt(1);
+                }
+                rs.close();
+                ps.close();
+            } catch (Exception exc) {
+                logger.warn("unable to assign GA id to {}: {}", key, exc.getMessage());
+            }
+            if (id == null) {
+                return -1;
+            }
+            gaDictionary.put(key, id);
+            logger.info("GA {} has id {}", key, id);
+        }
+        gaIds.put(desc, id);
+        return id;
+    }
+
+    /**
+     * @return all GA ids of knx_ga
+     */
+    public List<Integer> getGaIds() {
+        return new ArrayList<>(gaDictionary.values());
+    }
+
+    /**
+     * Returns what to select ts and value of the GA from: its data table, or
+     * in narrow mode its rows of knx_value as derived table.
+     */
+    public String valueSource(GaDescriptor desc) {
+        if (!narrow) {
+            return desc.getDataTable();
+        }
+        return "(select ts, coalesce(value_double, value_long) as value from " + VALUE_TABLE
+                + " where ga_id = " + gaId(desc) + ") v";
+    }
+
+    /**
+     * Returns the name the rollup tables of the GA are derived from by
+     * appending the suffix: its data table, or knx_value in narrow mode.
+     */
+    public String rollupBase(GaDescriptor desc) {
+        return narrow ? VALUE_TABLE : desc.getDataTable();
+    }
+
+    /**
+     * The rollup tables of knx_value have the GA id as first key column,
+     * like knx_value itself.
+     *
+     * @return true if the table had to be created
+     */
+    public boolean ensureRollupTable(Connection conn, String tableName) {
+        if (tables.contains(tableName)) {
+            return false;
+        }
+        logger.info("Table {} does not exist, creating", tableName);
+        boolean keyed = isValueRollupTable(tableName);
+        try {
+            PreparedStatement createTable = conn.prepareStatement("create table if not exists " + tableName + " ("
+                    + (keyed ? "ga_id smallint unsigned not null," : "")
+                    + "ts timestamp NOT NULL,"
+                    + "cnt integer not null,"
+                    + "val_min double not null,"
+                    + "val_max double not null,"
+                    + "val_sum double not null,"
+                    + "val_first double not null,"
+                    + "val_last double not null,"
+                    + "val_avg double not null,"
+                    + (keyed ? "primary key (ga_id, ts)" : "primary key (ts)")
+                    + ")");
+            createTable.executeUpdate();
+            createTable.close();
+            tables.add(tableName);
+            logger.info("created table {}", tableName);
+            return true;
+        } catch (Exception exc) {
+            logger.warn("unexpected exception during create table {}: {}", tableName, exc.getMessage(), exc);
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the table name is the one of a rollup table, e.g.
+     * data_5_0_2_9_001_1h or knx_value_1h
+     */
+    public static boolean isRollupTable(String tableName) {
+        return (tableName.startsWith("data_") || tableName.startsWith(VALUE_TABLE + "_"))
+                && tableName.matches(".*_[0-9]+[mh]$");
+    }
+
+    /**
+     * @return true if the table name is the one of a rollup table of
+     * knx_value, e.g. knx_value_1h
+     */
+    public static boolean isValueRollupTable(String tableName) {
+        return tableName.matches(VALUE_TABLE + "_[0-9]+[mh]");
+    }
+
+    /**
+     * Returns the name of the data table for a datapoint, or null if the
+     * datapoint type is not stored in a data table.
+     */
+    public static String dataTableName(GroupAddress ga, String dpt, int mainNumber) {
+        /*    
+     * 5.yyy = vorzeichenloser 8-Bit-Wert, wie Dimm-Wert (0..100 %), Jalousienposition (0..100 %)
+     * 6.yyy = 8-Bit-2-Komplement, z. B. %
+     * 7.yyy = 2 x vorzeichenloser 8-Bit-Wert, z. B. Impulszähler
+     * 8.yyy = 2 x 8-Bit-2-Komplement, z. B. %
+     * 12.yyy = 4 x vorzeichenloser 8-Bit-Wert,z. B. Impulszähler
+     * 13.yyy = 4 x 8-Bit-2-Komplement, z. B. Impulszähler
+        
+     * 9.yyy = 16-Bit-Gleitkommazahl, z. B. Temperatur
+        * 14.yyy = 32-Bit-Gleitkommazahl, z. B. Temperatur
+         */
+        // GA DPT
+        // 5/0/2 9.001
+        // data_5_0_2_9_001
+        if (mainNumber == 5
+                || mainNumber == 6
+                || mainNumber == 7
+                || mainNumber == 8
+                || mainNumber == 9
+                || mainNumber == 12
+                || mainNumber == 13
+                || mainNumber == 14) {
+            return "data_" + ga.toString().replace('/', '_') + "_" + dpt.replace('.', '_');
+        }
+        return null;
+    }
+}
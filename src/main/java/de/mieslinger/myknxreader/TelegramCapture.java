@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * File format for captured raw telegrams, used to record the bus and replay
+ * it later with ReplaySource.
+ * <pre>
+ * "KNXCAP01"
+ * per telegram: ts (8, microseconds since the epoch), event type (1),
+ *               source (2), destination (2), ASDU length (1), ASDU
+ * </pre>
+ *
+ * @author mieslingert
+ */
+public class TelegramCapture {
+
+    private static final byte[] MAGIC = "KNXCAP01".getBytes(StandardCharsets.US_ASCII);
+
+    private TelegramCapture() {
+    }
+
+    /**
+     * Appends telegrams to a new capture file.
+     */
+    public static class Writer implements Closeable {
+
+        private DataOutputStream out;
+        private long written = 0;
+
+        public Writer(String file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+            out.write(MAGIC);
+        }
+
+        public synchronized void write(long ts, KNXEventEnum evType, int src, int dst, byte[] asdu) throws IOException {
+            int len = Math.min(asdu.length, 255);
+            out.writeLong(ts);
+            out.writeByte(evType.ordinal());
+            out.writeShort(src);
+            out.writeShort(dst);
+            out.writeByte(len);
+            out.write(asdu, 0, len);
+            written++;
+        }
+
+        public synchronized void flush() throws IOException {
+            out.flush();
+        }
+
+        public synchronized long getWritten() {
+            return written;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a capture file telegram by telegram, a truncated last telegram
+     * is treated as end of file.
+     */
+    public static class Reader implements Closeable {
+
+        private static final KNXEventEnum[] EVENT_TYPES = KNXEventEnum.values();
+        private DataInputStream in;
+        private long ts;
+        private KNXEventEnum evType;
+        private int src;
+        private int dst;
+        private byte[] asdu;
+
+        public Reader(String file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                in.close();
+                throw new IOException(file + " is not a telegram capture");
+            }
+        }
+
+        /**
+         * @return false at the end of the file
+         */
+        public boolean next() throws IOException {
+            try {
+                ts = in.readLong();
+                int type = in.readUnsignedByte();
+                src = in.readUnsignedShort();
+                dst = in.readUnsignedShort();
+                asdu = new byte[in.readUnsignedByte()];
+                in.readFully(asdu);
+                if (type >= EVENT_TYPES.length) {
+                    throw new IOException("invalid event type " + type);
+                }
+                evType = EVENT_TYPES[type];
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        public long getTs() {
+            return ts;
+        }
+
+        public KNXEventEnum getEvType() {
+            return evType;
+        }
+
+        public int getSrc() {
+            return src;
+        }
+
+        public int getDst() {
+            return dst;
+        }
+
+        public byte[] getAsdu() {
+            return asdu;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
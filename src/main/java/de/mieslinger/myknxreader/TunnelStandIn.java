@@ -0,0 +1,270 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Minimal KNXnet/IP tunneling server on a local UDP port, so a GroupMonitor
+ * can be load tested against replayed or synthetic telegrams without a
+ * gateway.
+ * <p>
+ * Only what a tunneling client needs to receive group telegrams is
+ * implemented: connect, connection state, disconnect and tunneling requests
+ * carrying cEMI L_Data.ind frames, which the client has to acknowledge. One
+ * client at a time, a new connect replaces the old one. telegram() blocks
+ * until a client is connected and has acknowledged the frame, like a real
+ * gateway would throttle to the speed of its client.
+ *
+ * @author mieslingert
+ */
+public class TunnelStandIn implements Runnable, TelegramSink {
+
+    private static final int CONNECT_REQ = 0x0205;
+    private static final int CONNECT_RES = 0x0206;
+    private static final int CONNECTIONSTATE_REQ = 0x0207;
+    private static final int CONNECTIONSTATE_RES = 0x0208;
+    private static final int DISCONNECT_REQ = 0x0209;
+    private static final int DISCONNECT_RES = 0x020a;
+    private static final int TUNNELING_REQ = 0x0420;
+    private static final int TUNNELING_ACK = 0x0421;
+    private static final int E_CONNECTION_ID = 0x21;
+    // individual address assigned to the tunnel, 1.1.255
+    private static final int TUNNEL_ADDRESS = 0x11ff;
+    private static final long ACK_TIMEOUT = 1000;
+
+    private DatagramSocket socket;
+    private GaTable gaTable;
+    private SocketAddress client;
+    private int channel = 0;
+    private int sendSeq = 0;
+    private int ackedSeq = -1;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final static Logger logger = LoggerFactory.getLogger(TunnelStandIn.class);
+
+    private TunnelStandIn() {
+    }
+
+    /**
+     * Binds to the loopback interface.
+     *
+     * @param gaTable used to send DPT 1 to 3 in the short form of real
+     * devices
+     */
+    public TunnelStandIn(int port, GaTable gaTable) throws IOException {
+        this.socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        this.gaTable = gaTable;
+        logger.info("KNXnet/IP stand-in listening on {}", socket.getLocalSocketAddress());
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    @Override
+    public void run() {
+        byte[] buf = new byte[512];
+        while (!socket.isClosed()) {
+            try {
+                DatagramPacket p = new DatagramPacket(buf, buf.length);
+                socket.receive(p);
+                if (p.getLength() < 8 || buf[0] != 0x06 || buf[1] != 0x10) {
+                    continue;
+                }
+                int service = u16(buf, 2);
+                switch (service) {
+                    case CONNECT_REQ:
+                        connect(buf, p);
+                        break;
+                    case CONNECTIONSTATE_REQ:
+                        reply(p.getSocketAddress(), CONNECTIONSTATE_RES,
+                                buf[6], (byte) ((buf[6] & 0xff) == channel ? 0 : E_CONNECTION_ID));
+                        break;
+                    case DISCONNECT_REQ:
+                        reply(p.getSocketAddress(), DISCONNECT_RES, buf[6], (byte) 0);
+                        disconnected(buf[6] & 0xff);
+                        break;
+                    case TUNNELING_REQ:
+                        // frames from the client are acknowledged and dropped
+                        reply(p.getSocketAddress(), TUNNELING_ACK, (byte) 4, buf[7], buf[8], (byte) 0);
+                        break;
+                    case TUNNELING_ACK:
+                        acked(buf[7] & 0xff, buf[8] & 0xff);
+                        break;
+                    default:
+                        break;
+                }
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    logger.warn("stand-in receive failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void connect(byte[] buf, DatagramPacket p) throws IOException {
+        // header, control endpoint HPAI, data endpoint HPAI, CRI
+        SocketAddress data = p.getSocketAddress();
+        if (p.getLength() >= 22 && (buf[16] | buf[17] | buf[18] | buf[19] | buf[20] | buf[21]) != 0) {
+            data = new InetSocketAddress(InetAddress.getByAddress(new byte[]{buf[16], buf[17], buf[18], buf[19]}), u16(buf, 20));
+        }
+        int ch;
+        synchronized (this) {
+            channel = channel % 255 + 1;
+            ch = channel;
+            client = data;
+            sendSeq = 0;
+            ackedSeq = -1;
+            notifyAll();
+        }
+        byte[] ip = ((InetSocketAddress) socket.getLocalSocketAddress()).getAddress().getAddress();
+        int port = socket.getLocalPort();
+        reply(p.getSocketAddress(), CONNECT_RES, (byte) ch, (byte) 0,
+                (byte) 8, (byte) 1, ip[0], ip[1], ip[2], ip[3], (byte) (port >> 8), (byte) port,
+                (byte) 4, (byte) 4, (byte) (TUNNEL_ADDRESS >> 8), (byte) TUNNEL_ADDRESS);
+        logger.info("stand-in client {} connected on channel {}", data, ch);
+    }
+
+    private synchronized void disconnected(int ch) {
+        if (ch == channel && client != null) {
+            logger.info("stand-in client {} disconnected", client);
+            client = null;
+        }
+    }
+
+    private synchronized void acked(int ch, int seq) {
+        if (ch == channel) {
+            ackedSeq = seq;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Sends the telegram to the connected client as cEMI L_Data.ind, waits
+     * for a client to connect first.
+     */
+    @Override
+    public synchronized void telegram(KNXEventEnum evType, int src, int dst, byte[] asdu) {
+        try {
+            while (client == null) {
+                wait();
+            }
+            byte[] frame = frame(evType, src, dst, asdu);
+            for (int attempt = 0; attempt < 2; attempt++) {
+                frame[7] = (byte) channel;
+                frame[8] = (byte) sendSeq;
+                socket.send(new DatagramPacket(frame, frame.length, client));
+                long deadline = System.currentTimeMillis() + ACK_TIMEOUT;
+                long wait;
+                while (ackedSeq != sendSeq && client != null && (wait = deadline - System.currentTimeMillis()) > 0) {
+                    wait(wait);
+                }
+                if (ackedSeq == sendSeq) {
+                    sendSeq = (sendSeq + 1) & 0xff;
+                    sent.incrementAndGet();
+                    return;
+                }
+            }
+            // a real gateway drops the connection here, the client notices
+            // by its connection state requests
+            logger.warn("stand-in telegram to {} not acknowledged, {} lost so far", client, lost.incrementAndGet());
+            sendSeq = (sendSeq + 1) & 0xff;
+        } catch (IOException e) {
+            logger.warn("stand-in send failed: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private byte[] frame(KNXEventEnum evType, int src, int dst, byte[] asdu) {
+        int apci;
+        switch (evType) {
+            case groupReadRequest:
+                apci = 0x00;
+                break;
+            case groupReadResponse:
+                apci = 0x40;
+                break;
+            default:
+                apci = 0x80;
+        }
+        GaDescriptor desc = gaTable.get(dst);
+        boolean optimized = asdu.length == 1 && (asdu[0] & 0xc0) == 0 && desc != null && desc.getMainNumber() <= 3;
+        int dataLength = evType == KNXEventEnum.groupReadRequest || optimized ? 0 : asdu.length;
+        // header, connection header, cEMI message code, additional info
+        // length, ctrl1, ctrl2, source, destination, NPDU length, TPCI/APCI
+        byte[] frame = new byte[6 + 4 + 11 + dataLength];
+        frame[0] = 0x06;
+        frame[1] = 0x10;
+        frame[2] = (byte) (TUNNELING_REQ >> 8);
+        frame[3] = (byte) TUNNELING_REQ;
+        frame[4] = (byte) (frame.length >> 8);
+        frame[5] = (byte) frame.length;
+        frame[6] = 4;
+        frame[10] = 0x29;
+        frame[12] = (byte) 0xbc;
+        frame[13] = (byte) 0xe0;
+        frame[14] = (byte) (src >> 8);
+        frame[15] = (byte) src;
+        frame[16] = (byte) (dst >> 8);
+        frame[17] = (byte) dst;
+        frame[18] = (byte) (1 + dataLength);
+        frame[20] = (byte) (optimized ? apci | asdu[0] : apci);
+        System.arraycopy(asdu, 0, frame, 21, dataLength);
+        return frame;
+    }
+
+    private void reply(SocketAddress to, int service, byte... body) throws IOException {
+        byte[] msg = new byte[6 + body.length];
+        msg[0] = 0x06;
+        msg[1] = 0x10;
+        msg[2] = (byte) (service >> 8);
+        msg[3] = (byte) service;
+        msg[4] = (byte) (msg.length >> 8);
+        msg[5] = (byte) msg.length;
+        System.arraycopy(body, 0, msg, 6, body.length);
+        socket.send(new DatagramPacket(msg, msg.length, to));
+    }
+
+    private static int u16(byte[] buf, int off) {
+        return (buf[off] & 0xff) << 8 | (buf[off + 1] & 0xff);
+    }
+
+    public void close() {
+        socket.close();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tuwien.auto.calimero.GroupAddress;
+import tuwien.auto.calimero.IndividualAddress;
+
+/**
+ * Counts telegrams to GAs missing in the GA file. record() only updates
+ * arrays indexed by the raw GA, the periodic run() logs one line per
+ * address seen since the previous run and, if enabled, upserts the
+ * addresses into knx_unknown with first/last seen, count and the last ASDU,
+ * so the missing GAs can be added to the GA file later.
+ *
+ * @author mieslingert
+ */
+public class UnknownGaTracker implements Runnable {
+
+    private static final int GAS = 65536;
+    // at most this many addresses are logged per run, the rest is summed up
+    private static final int MAX_LOG_LINES = 20;
+    private final long[] total = new long[GAS];
+    private final int[] pending = new int[GAS];
+    private final long[] firstSeen = new long[GAS];
+    private final long[] lastSeen = new long[GAS];
+    private final int[] lastSrc = new int[GAS];
+    private final byte[][] lastAsdu = new byte[GAS][];
+    private final int[] dirty = new int[GAS];
+    private int dirtyCount = 0;
+    private String jdbcUrl;
+    private String user;
+    private String password;
+    private TableRegistry tables;
+    private Connection conn;
+    private final static Logger logger = LoggerFactory.getLogger(UnknownGaTracker.class);
+
+    public UnknownGaTracker() {
+    }
+
+    /**
+     * Also write the unknown addresses to knx_unknown, on its own
+     * connection. jdbcUrl null disables.
+     */
+    public void setDb(String jdbcUrl, String user, String password, TableRegistry tables) {
+        this.jdbcUrl = jdbcUrl;
+        this.user = user;
+        this.password = password;
+        this.tables = tables;
+    }
+
+    public synchronized void record(int src, int dst, byte[] asdu) {
+        dst &= 0xffff;
+        long now = System.currentTimeMillis();
+        if (pending[dst] == 0) {
+            dirty[dirtyCount++] = dst;
+        }
+        if (total[dst] == 0) {
+            firstSeen[dst] = now;
+        }
+        total[dst]++;
+        pending[dst]++;
+        lastSeen[dst] = now;
+        lastSrc[dst] = src;
+        lastAsdu[dst] = asdu;
+    }
+
+    /**
+     * @return telegrams to dst since start, 0 for a known GA
+     */
+    public synchronized long getCount(int dst) {
+        return total[dst & 0xffff];
+    }
+
+    @Override
+    public void run() {
+        int n;
+        int[] gas;
+        int[] counts;
+        long[] first;
+        long[] last;
+        int[] srcs;
+        byte[][] asdus;
+        synchronized (this) {
+            n = dirtyCount;
+            gas = new int[n];
+            counts = new int[n];
+            first = new long[n];
+            last = new long[n];
+            srcs = new int[n];
+            asdus = new byte[n][];
+            for (int i = 0; i < n; i++) {
+                int ga = dirty[i];
+                gas[i] = ga;
+                counts[i] = pending[ga];
+                first[i] = firstSeen[ga];
+                last[i] = lastSeen[ga];
+                srcs[i] = lastSrc[ga];
+                asdus[i] = lastAsdu[ga];
+                pending[ga] = 0;
+            }
+            dirtyCount = 0;
+        }
+        if (n == 0) {
+            return;
+        }
+        long telegrams = 0;
+        for (int i = 0; i < n; i++) {
+            telegrams += counts[i];
+            if (i < MAX_LOG_LINES) {
+                logger.warn("{} telegrams to {} missing in datapoint map, last from {}: {}", counts[i],
+                        new GroupAddress(gas[i]), new IndividualAddress(srcs[i]), KNXEvent.toHex(asdus[i], " "));
+            }
+        }
+        if (n > MAX_LOG_LINES) {
+            logger.warn("{} more GAs missing in datapoint map, {} telegrams to unknown GAs in total",
+                    n - MAX_LOG_LINES, telegrams);
+        }
+        if (jdbcUrl != null) {
+            try {
+                write(gas, counts, first, last, srcs, asdus);
+            } catch (Exception e) {
+                logger.warn("unable to write {} unknown GAs to {}: {}", n, TableRegistry.UNKNOWN_TABLE, e.getMessage());
+                closeConnection();
+                restore(gas, counts);
+            }
+        }
+    }
+
+    private void closeConnection() {
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.close();
+        } catch (Exception e) {
+            // broken anyway
+        }
+        conn = null;
+    }
+
+    private void write(int[] gas, int[] counts, long[] first, long[] last, int[] srcs, byte[][] asdus) throws Exception {
+        if (conn == null || !conn.isValid(5)) {
+            closeConnection();
+            conn = DbWriter.connect(jdbcUrl, user, password);
+            tables.ensureUnknownTable(conn);
+        }
+        PreparedStatement ps = conn.prepareStatement("insert into " + TableRegistry.UNKNOWN_TABLE
+                + " (address, first_seen, last_seen, count, last_src, last_asdu) values (?, ?, ?, ?, ?, ?)"
+                + " on duplicate key update last_seen = values(last_seen), count = count + values(count),"
+                + " last_src = values(last_src), last_asdu = values(last_asdu)");
+        try {
+            for (int i = 0; i < gas.length; i++) {
+                ps.setString(1, new GroupAddress(gas[i]).toString());
+                ps.setTimestamp(2, new Timestamp(first[i]));
+                ps.setTimestamp(3, new Timestamp(last[i]));
+                ps.setLong(4, counts[i]);
+                ps.setString(5, new IndividualAddress(srcs[i]).toString());
+                ps.setBytes(6, asdus[i]);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } finally {
+            ps.close();
+        }
+    }
+
+    /**
+     * Puts the counts of a failed write back, they go out with the next run.
+     */
+    private synchronized void restore(int[] gas, int[] counts) {
+        for (int i = 0; i < gas.length; i++) {
+            int ga = gas[i];
+            if (pending[ga] == 0) {
+                dirty[dirtyCount++] = ga;
+            }
+            pending[ga] += counts[i];
+        }
+    }
+}
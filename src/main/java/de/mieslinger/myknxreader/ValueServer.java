@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 mieslingert.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.mieslinger.myknxreader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tuwien.auto.calimero.GroupAddress;
+import tuwien.auto.calimero.KNXFormatException;
+
+/**
+ * Serves the LastValueCache as JSON on /values, using the HTTP server built
+ * into the JDK.
+ * <ul>
+ * <li>/values returns all GAs that received a value</li>
+ * <li>/values?ga=1/2/3 returns one GA</li>
+ * <li>/values?from=1/2/0&amp;to=1/2/255 returns a range of GAs</li>
+ * <li>/values?since=n returns the GAs updated after sequence number n, can
+ * be combined with the others</li>
+ * </ul>
+ * The response carries the current sequence number, a client polls with
+ * since set to the sequence of its previous response.
+ *
+ * @author mieslingert
+ */
+public class ValueServer {
+
+    private HttpServer server;
+    private LastValueCache values;
+    private final static Logger logger = LoggerFactory.getLogger(ValueServer.class);
+
+    private ValueServer() {
+    }
+
+    public ValueServer(int port, LastValueCache values) throws IOException {
+        this.values = values;
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/values", this::handle);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "ValueServer");
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    public void start() {
+        server.start();
+        logger.info("last values available on http://{}/values", server.getAddress());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            int from = 0;
+            int to = 65535;
+            long since = 0;
+            try {
+                if (query.containsKey("ga")) {
+                    from = new GroupAddress(query.get("ga")).getRawAddress();
+                    to = from;
+                }
+                if (query.containsKey("from")) {
+                    from = new GroupAddress(query.get("from")).getRawAddress();
+                }
+                if (query.containsKey("to")) {
+                    to = new GroupAddress(query.get("to")).getRawAddress();
+                }
+                if (query.containsKey("since")) {
+                    since = Long.parseLong(query.get("since"));
+                }
+            } catch (KNXFormatException | NumberFormatException e) {
+                send(exchange, 400, "{\"error\":" + quote(e.getMessage()) + "}");
+                return;
+            }
+            // read the sequence first, a value updated meanwhile is sent
+            // again with the next poll rather than lost
+            long sequence = values.getSequence();
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("{\"sequence\":").append(sequence).append(",\"values\":");
+            values.toJson(sb, from, to, since);
+            sb.append('}');
+            send(exchange, 200, sb.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder();
+        LastValueCache.string(sb, s);
+        return sb.toString();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String param : rawQuery.split("&")) {
+            int eq = param.indexOf('=');
+            if (eq > 0) {
+                query.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"), URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+}